@@ -2,6 +2,8 @@ package ru.tpu.courses.android;
 
 import android.app.Application;
 
+import java.io.File;
+
 import ru.tpu.courses.lab3.Student;
 import ru.tpu.courses.lab3.StudentsCache;
 
@@ -13,7 +15,13 @@ public class App extends Application {
 
         // region lab3
         StudentsCache studentsCache = StudentsCache.getInstance();
-        studentsCache.addStudent(new Student("Victor", "Alexsandrov", "Sergeevich"));
+        File studentsLog = new File(getFilesDir(), "students.log");
+        // файл открывается и читается на фоновом потоке
+        studentsCache.open(studentsLog);
+        // после чтения журнала, чтобы не дописывать в него уже сохранённого студента
+        studentsCache.runWhenLoaded(
+                () -> studentsCache.addStudent(new Student("Victor", "Alexsandrov", "Sergeevich"))
+        );
 
         // endregion lab3
     }
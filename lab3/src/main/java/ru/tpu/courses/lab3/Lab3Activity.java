@@ -17,6 +17,7 @@ import androidx.core.view.MenuItemCompat;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 
 import ru.tpu.courses.lab3.adapter.StudentsAdapter;
+import ru.tpu.courses.lab3.search.SearchScheduler;
 
 /**
  * <b>RecyclerView, взаимодействие между экранами. Memory Cache.</b>
@@ -40,6 +41,8 @@ import ru.tpu.courses.lab3.adapter.StudentsAdapter;
 public class Lab3Activity extends AppCompatActivity {
 
     private static final int REQUEST_STUDENT_ADD = 1;
+    //запросы, набранные быстрее этого времени, склеиваются в один поиск
+    private static final long SEARCH_DEBOUNCE_MS = 150;
 
     public static Intent newIntent(@NonNull Context context) {
         return new Intent(context, Lab3Activity.class);
@@ -51,6 +54,10 @@ public class Lab3Activity extends AppCompatActivity {
     private FloatingActionButton fab;
 
     private StudentsAdapter studentsAdapter;
+    private SearchScheduler searchScheduler;
+
+    //студенты из журнала на диске могут дочитываться уже после открытия экрана
+    private final Runnable onStudentsLoaded = this::showNewStudents;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -84,7 +91,13 @@ public class Lab3Activity extends AppCompatActivity {
         list.setAdapter(studentsAdapter = new StudentsAdapter());
         studentsAdapter.setStudents(studentsCache.getStudents());
 
-        studentsAdapter.setLists();
+        //поиск идёт в фоне, на экран попадает только результат последнего запроса
+        searchScheduler = new SearchScheduler(
+                studentsCache,
+                SEARCH_DEBOUNCE_MS,
+                studentsAdapter::setSearchResult
+        );
+        studentsCache.runWhenLoaded(onStudentsLoaded);
 
         /*
         При нажатии на кнопку мы переходим на Activity для добавления студента. Обратите внимание,
@@ -100,6 +113,14 @@ public class Lab3Activity extends AppCompatActivity {
                 )
         );
     }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        studentsCache.removeWhenLoaded(onStudentsLoaded);
+        searchScheduler.release();
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.lab3_search_student, menu);
@@ -123,14 +144,14 @@ public class Lab3Activity extends AppCompatActivity {
             //произошло нажатие "подтвердить"
             @Override
             public boolean onQueryTextSubmit(String query) {
-                studentsAdapter.getFilter().filter(query);
+                searchScheduler.submitNow(query);
                 return false;
             }
 
             //произошло любое изменение текста
             @Override
             public boolean onQueryTextChange(String newText) {
-                studentsAdapter.getFilter().filter(newText);
+                searchScheduler.submit(newText);
                 return true;
             }
         });
@@ -158,9 +179,25 @@ public class Lab3Activity extends AppCompatActivity {
 
             studentsCache.addStudent(student);
 
-            studentsAdapter.setStudents(studentsCache.getStudents());
-            studentsAdapter.notifyItemRangeInserted(studentsAdapter.getItemCount() - 2, 2);
-            list.scrollToPosition(studentsAdapter.getItemCount() - 1);
+            if (showNewStudents()) {
+                list.scrollToPosition(studentsAdapter.getItemCount() - 1);
+            }
+        }
+    }
+
+    /**
+     * Выводит студентов, добавленных в кэш после последнего обновления списка.
+     *
+     * @return false, если выведен результат поиска: тогда запрос просто повторяется, и новые
+     * студенты появятся в нём, только если подходят под запрос.
+     */
+    private boolean showNewStudents() {
+        if (searchScheduler.refresh()) {
+            return false;
         }
+        int count = studentsAdapter.getItemCount();
+        studentsAdapter.setStudents(studentsCache.getStudents());
+        studentsAdapter.notifyItemRangeInserted(count, studentsAdapter.getItemCount() - count);
+        return true;
     }
 }
@@ -0,0 +1,25 @@
+package ru.tpu.courses.lab3;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Пул для дедупликации часто повторяющихся строк (имён и отчеств). Вместо того, чтобы каждый
+ * студент хранил свою копию строки "Иван", все студенты ссылаются на один и тот же объект.
+ * В отличие от {@link String#intern()}, пул живёт в обычной куче и может использоваться с
+ * любых потоков.
+ */
+final class NamePool {
+
+    private static final ConcurrentHashMap<String, String> names = new ConcurrentHashMap<>();
+
+    private NamePool() {
+    }
+
+    @NonNull
+    static String get(@NonNull String name) {
+        String pooled = names.putIfAbsent(name, name);
+        return pooled == null ? name : pooled;
+    }
+}
@@ -2,8 +2,6 @@ package ru.tpu.courses.lab3;
 
 import android.os.Parcel;
 import android.os.Parcelable;
-import android.text.Spannable;
-import android.text.SpannableString;
 
 import androidx.annotation.NonNull;
 import androidx.core.util.ObjectsCompat;
@@ -12,37 +10,51 @@ import androidx.core.util.ObjectsCompat;
  * Для передачи самописных объектов через {@link android.content.Intent} или
  * {@link android.os.Bundle}, необходимо реализовать интерфейс {@link Parcelable}. В нём описывается
  * как сохранить и восстановить объект используя примитивные свойства (String, int и т.д.).
+ * <p>
+ * Студентов в кэше может быть очень много, поэтому объект сделан компактным: имена и отчества
+ * сильно повторяются и берутся из общего {@link NamePool}, хэш считается один раз в
+ * конструкторе, а строка для вывода на экран собирается только когда она впервые понадобилась.
  */
 public class Student implements Parcelable {
 
 	@NonNull
-	public String firstName;
+	public final String firstName;
 	@NonNull
-	public String secondName;
+	public final String secondName;
 	@NonNull
-	public String lastName;
-	@NonNull
-	public Spannable shownName;
+	public final String lastName;
+
+	private final int hash;
+	private String shownName;
 
 	public Student(@NonNull String firstName, @NonNull String secondName, @NonNull String lastName) {
 		this.lastName = lastName;
-		this.firstName = firstName;
-		this.secondName = secondName;
-		this.shownName = new SpannableString(lastName + " " + firstName + " " + secondName);
-
+		this.firstName = NamePool.get(firstName);
+		this.secondName = NamePool.get(secondName);
+		this.hash = ObjectsCompat.hash(lastName, firstName, secondName);
 	}
 
 	protected Student(Parcel in) {
-		firstName = in.readString();
-		lastName = in.readString();
-		secondName = in.readString();
-		shownName = new SpannableString(in.readString());
+		this(in.readString(), in.readString(), in.readString());
 	}
 
 	public String getName() {
 		return (firstName + " " + lastName + " " + secondName);
 	}
 
+	/**
+	 * ФИО в порядке "фамилия имя отчество" для вывода в списке. Гонка при первом вызове с разных
+	 * потоков безопасна: в худшем случае строка будет собрана дважды.
+	 */
+	@NonNull
+	public String getShownName() {
+		String name = shownName;
+		if (name == null) {
+			shownName = name = lastName + " " + firstName + " " + secondName;
+		}
+		return name;
+	}
+
 	public static final Creator<Student> CREATOR = new Creator<Student>() {
 		@Override
 		public Student createFromParcel(Parcel in) {
@@ -63,9 +75,8 @@ public class Student implements Parcelable {
 	@Override
 	public void writeToParcel(Parcel dest, int flags) {
 		dest.writeString(firstName);
-		dest.writeString(lastName);
 		dest.writeString(secondName);
-		dest.writeString(shownName.toString());
+		dest.writeString(lastName);
 	}
 
 	@Override
@@ -73,13 +84,14 @@ public class Student implements Parcelable {
 		if (this == o) return true;
 		if (!(o instanceof Student)) return false;
 		Student student = (Student) o;
-		return lastName.equals(student.lastName) &&
+		return hash == student.hash &&
+				lastName.equals(student.lastName) &&
 				firstName.equals(student.firstName) &&
 				secondName.equals(student.secondName);
 	}
 
 	@Override
 	public int hashCode() {
-		return ObjectsCompat.hash(lastName, firstName, secondName, shownName);
+		return hash;
 	}
 }
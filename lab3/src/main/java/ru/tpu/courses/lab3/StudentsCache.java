@@ -1,11 +1,23 @@
 package ru.tpu.courses.lab3;
 
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.LinkedHashSet;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Кэш списка студентов в оперативной памяти. Самый быстрый тип кэша, но ограничен размерами
@@ -13,9 +25,15 @@ import java.util.Set;
  * выгружено из оперативной памяти - то все данные из этого кэша пропадут.
  * Такой тип кэшей используется для временных данных, потеря которых не важна, в большинстве случаев
  * чтобы не делать дополнительные запросы на сервер.
+ * <p>
+ * Если данные нужно сохранять между запусками, то кэш можно связать с журналом на диске через
+ * {@link #open(File)}: добавленные студенты дописываются в журнал, а при следующем запуске
+ * журнал читается в кэш на фоновом потоке.
  */
 public class StudentsCache {
 
+    private static final String TAG = StudentsCache.class.getSimpleName();
+
     private static StudentsCache instance;
 
     /**
@@ -33,21 +51,226 @@ public class StudentsCache {
         return instance;
     }
 
-    private Set<Student> students = new LinkedHashSet<>();
+    //множество для быстрой проверки на дубликаты, порядок добавления хранится в блоках ниже.
+    //ConcurrentHashMap блокирует только отдельные корзины, поэтому потоки-писатели почти не мешают
+    //друг другу, а чтение вообще не блокируется
+    private final Set<Student> students =
+            Collections.newSetFromMap(new ConcurrentHashMap<Student, Boolean>());
+    private final StudentsIndex index = new StudentsIndex();
+
+    //студенты хранятся блоками по StudentsSnapshot.CHUNK_SIZE, массив блоков общий со снимками
+    private volatile AtomicReferenceArray<Student>[] chunks = StudentsSnapshot.newChunks(4);
+    //блокировка только на выделение нового блока, т.е. раз в CHUNK_SIZE добавлений
+    private final Object chunksLock = new Object();
+    //следующая свободная позиция, выдаётся писателям через CAS
+    private final AtomicInteger reserved = new AtomicInteger();
+    //количество студентов, видимых читателям: все позиции до него уже заполнены
+    private final AtomicInteger published = new AtomicInteger();
+
+    private volatile StudentsSnapshot snapshot = StudentsSnapshot.EMPTY;
 
-    private StudentsCache() {
+    //журнал на диске, null - если кэш только в памяти или журнал ещё открывается
+    private volatile StudentsLog log;
+    //true, пока журнал открывается и читается в кэш
+    private volatile boolean loading;
+    //студенты, добавленные пока журнал открывался, под logLock. null - журнал уже открыт или
+    //его нет
+    private List<Student> pendingAppends;
+    private final Object logLock = new Object();
+    //ждут окончания чтения журнала, под блокировкой самого списка
+    private final List<Runnable> loadedCallbacks = new ArrayList<>();
+
+    @VisibleForTesting
+    StudentsCache() {
     }
 
+    /**
+     * Возвращает текущий снимок списка студентов в порядке добавления. Снимок не копирует данные и
+     * не меняется при последующих добавлениях, поэтому его можно отдавать адаптеру или фоновому
+     * потоку без копирования. Никогда не блокируется.
+     */
     @NonNull
-    public List<Student> getStudents() {
-        return new ArrayList<>(students);
+    public StudentsSnapshot getStudents() {
+        int size = published.get();
+        StudentsSnapshot current = snapshot;
+        if (current.size() >= size) {
+            return current;
+        }
+        // массив блоков читается после published, поэтому в нём уже есть все опубликованные блоки
+        current = new StudentsSnapshot(chunks, size, size);
+        snapshot = current;
+        return current;
     }
 
+    /**
+     * Связывает кэш с журналом в файле. Журнал открывается и читается на фоновом потоке: читатели
+     * видят студентов по мере чтения, а окончание можно дождаться через
+     * {@link #runWhenLoaded(Runnable)}. Студенты, добавленные во время открытия и чтения, тоже
+     * попадут в журнал. Если файл журнала не удалось открыть, кэш остаётся только в памяти.
+     * Вызывается один раз, до добавления первого студента.
+     */
+    @MainThread
+    public void open(@NonNull File file) {
+        if (loading || log != null || reserved.get() != 0) {
+            throw new IllegalStateException("log must be opened once before adding students");
+        }
+        Handler mainHandler = new Handler(Looper.getMainLooper());
+        synchronized (logLock) {
+            pendingAppends = new ArrayList<>();
+        }
+        loading = true;
+        new Thread(() -> {
+            StudentsLog opened = null;
+            try {
+                opened = StudentsLog.open(file);
+            } catch (IOException e) {
+                // без журнала студенты просто не сохранятся между запусками
+                Log.e(TAG, "can't open " + file, e);
+            }
+            List<Student> added;
+            synchronized (logLock) {
+                log = opened;
+                added = pendingAppends;
+                pendingAppends = null;
+            }
+            if (opened != null) {
+                for (Student student : added) {
+                    opened.append(student);
+                }
+                opened.replay(this::insert);
+                try {
+                    opened.compactIfNeeded(this);
+                } catch (IOException e) {
+                    Log.e(TAG, "can't compact " + file, e);
+                }
+            }
+            mainHandler.post(this::onLoaded);
+        }, "StudentsLog").start();
+    }
+
+    /**
+     * Выполняет callback на UI потоке, когда журнал будет прочитан в кэш, или сразу, если он уже
+     * прочитан или журнала нет.
+     */
+    @MainThread
+    public void runWhenLoaded(@NonNull Runnable callback) {
+        synchronized (loadedCallbacks) {
+            if (loading) {
+                loadedCallbacks.add(callback);
+                return;
+            }
+        }
+        callback.run();
+    }
+
+    @MainThread
+    public void removeWhenLoaded(@NonNull Runnable callback) {
+        synchronized (loadedCallbacks) {
+            loadedCallbacks.remove(callback);
+        }
+    }
+
+    /**
+     * Индекс для поиска по ФИО. Номера студентов в нём совпадают с позициями в
+     * {@link #getStudents()}.
+     */
+    @NonNull
+    public StudentsIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Добавляет студента, если такого ещё нет. Может вызываться с любых потоков одновременно и
+     * не ждёт других писателей. Если параллельно добавляется студент на более раннюю позицию, то
+     * наш появится в {@link #getStudents()} сразу после него, а {@link #contains(Student)} видит
+     * его уже после возврата из метода. Если открыт журнал, то студент дописывается и в него.
+     */
     public void addStudent(@NonNull Student student) {
-        students.add(student);
+        if (insert(student)) {
+            StudentsLog current = log;
+            if (current == null && loading) {
+                synchronized (logLock) {
+                    current = log;
+                    if (current == null && pendingAppends != null) {
+                        // журнал ещё открывается, студент допишется сразу после открытия
+                        pendingAppends.add(student);
+                        return;
+                    }
+                }
+            }
+            if (current != null) {
+                current.append(student);
+            }
+        }
     }
 
     public boolean contains(@NonNull Student student) {
         return students.contains(student);
     }
+
+    private boolean insert(Student student) {
+        if (!students.add(student)) {
+            return false;
+        }
+        int position = reserved.getAndIncrement();
+        index.add(position, student);
+        chunkFor(position).set(position & StudentsSnapshot.CHUNK_MASK, student);
+        publish();
+        return true;
+    }
+
+    private void onLoaded() {
+        List<Runnable> callbacks;
+        synchronized (loadedCallbacks) {
+            loading = false;
+            callbacks = new ArrayList<>(loadedCallbacks);
+            loadedCallbacks.clear();
+        }
+        for (Runnable callback : callbacks) {
+            callback.run();
+        }
+    }
+
+    /**
+     * Сдвигает границу видимой читателям части списка, пока следующая позиция уже заполнена.
+     * Если писатель, занявший более раннюю позицию, ещё не записал студента, то граница
+     * останавливается на нём, и он сам сдвинет её дальше, в том числе за наших студентов.
+     */
+    private void publish() {
+        while (true) {
+            int size = published.get();
+            if (size == reserved.get() || written(size) == null) {
+                return;
+            }
+            published.compareAndSet(size, size + 1);
+        }
+    }
+
+    private Student written(int position) {
+        AtomicReferenceArray<Student>[] current = chunks;
+        int chunk = position >>> StudentsSnapshot.CHUNK_SHIFT;
+        if (chunk >= current.length || current[chunk] == null) {
+            return null;
+        }
+        return current[chunk].get(position & StudentsSnapshot.CHUNK_MASK);
+    }
+
+    private AtomicReferenceArray<Student> chunkFor(int position) {
+        int chunk = position >>> StudentsSnapshot.CHUNK_SHIFT;
+        AtomicReferenceArray<Student>[] current = chunks;
+        if (chunk < current.length && current[chunk] != null) {
+            return current[chunk];
+        }
+        synchronized (chunksLock) {
+            current = chunks;
+            if (chunk >= current.length) {
+                current = Arrays.copyOf(current, Math.max(current.length * 2, chunk + 1));
+            }
+            if (current[chunk] == null) {
+                current[chunk] = new AtomicReferenceArray<>(StudentsSnapshot.CHUNK_SIZE);
+            }
+            chunks = current;
+            return current[chunk];
+        }
+    }
 }
@@ -0,0 +1,215 @@
+package ru.tpu.courses.lab3;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Инвертированный индекс по частям ФИО студентов, который хранится рядом с {@link StudentsCache}.
+ * <p>
+ * Каждое ФИО разбивается на токены (фамилия, имя, отчество в нижнем регистре), и для каждого
+ * токена хранится список номеров студентов. Токены лежат в отсортированном
+ * {@link ConcurrentSkipListMap}, поэтому все токены, начинающиеся с введённого префикса,
+ * находятся за логарифмическое время, а не перебором всего списка студентов.
+ * <p>
+ * Индекс потокобезопасен: добавление блокирует только список номеров одного токена, а поиск не
+ * блокируется вовсе.
+ * <p>
+ * Запрос также разбивается на слова. Студент проходит фильтр, если каждое слово запроса является
+ * началом хотя бы одной части его ФИО.
+ */
+public class StudentsIndex {
+
+    private static final int[] EMPTY = new int[0];
+
+    private final ConcurrentNavigableMap<String, Postings> tokens = new ConcurrentSkipListMap<>();
+
+    /**
+     * Добавляет студента в индекс.
+     *
+     * @param position номер студента в списке {@link StudentsCache#getStudents()}.
+     */
+    void add(int position, @NonNull Student student) {
+        addTokens(position, student.lastName);
+        addTokens(position, student.firstName);
+        addTokens(position, student.secondName);
+    }
+
+    /**
+     * Ищет студентов, подходящих под запрос.
+     *
+     * @param limit количество студентов в списке, по которому идёт поиск. Студенты, добавленные в
+     *              кэш позже, чем был получен этот список, в результат не попадают.
+     * @return отсортированные по возрастанию номера студентов без повторов.
+     */
+    @NonNull
+    public int[] search(@NonNull String query, int limit) {
+        return search(terms(query), limit);
+    }
+
+    /**
+     * То же, что и {@link #search(String, int)}, но для уже разбитого методом {@link #terms(String)}
+     * запроса.
+     */
+    @NonNull
+    public int[] search(@NonNull String[] terms, int limit) {
+        if (terms.length == 0) {
+            return EMPTY;
+        }
+        int[] result = null;
+        for (String term : terms) {
+            int[] positions = collect(term, limit);
+            result = result == null ? positions : intersect(result, positions);
+            if (result.length == 0) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Разбивает запрос на слова в нижнем регистре.
+     */
+    @NonNull
+    public static String[] terms(@NonNull String query) {
+        String normalized = query.trim().toLowerCase(Locale.ROOT);
+        if (normalized.isEmpty()) {
+            return new String[0];
+        }
+        String[] parts = normalized.split("[^\\p{L}\\p{Nd}]+");
+        int count = 0;
+        for (String part : parts) {
+            if (!part.isEmpty()) {
+                parts[count++] = part;
+            }
+        }
+        return count == parts.length ? parts : Arrays.copyOf(parts, count);
+    }
+
+    /**
+     * Проверяет одного студента по тем же правилам, по которым работает
+     * {@link #search(String[], int)}: каждое слово запроса должно быть началом какой-либо части ФИО.
+     * Используется, чтобы сузить уже найденный результат без обращения к индексу.
+     */
+    public static boolean matches(@NonNull Student student, @NonNull String[] terms) {
+        for (String term : terms) {
+            if (!startsAnyToken(student.lastName, term) &&
+                    !startsAnyToken(student.firstName, term) &&
+                    !startsAnyToken(student.secondName, term)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Начинается ли в text с символа index слово: символ - буква или цифра, а перед ним начало
+     * строки или разделитель. По этому же правилу слова запроса сравниваются с ФИО.
+     */
+    public static boolean isTokenStart(@NonNull CharSequence text, int index) {
+        return isTokenChar(text.charAt(index)) && (index == 0 || !isTokenChar(text.charAt(index - 1)));
+    }
+
+    private static boolean startsAnyToken(String namePart, String term) {
+        for (int i = 0, length = namePart.length(); i < length; i++) {
+            if (isTokenStart(namePart, i) && namePart.regionMatches(true, i, term, 0, term.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isTokenChar(char c) {
+        return Character.isLetterOrDigit(c);
+    }
+
+    private void addTokens(int position, @NonNull String namePart) {
+        for (String token : terms(namePart)) {
+            Postings postings = tokens.get(token);
+            if (postings == null) {
+                Postings created = new Postings();
+                postings = tokens.putIfAbsent(token, created);
+                if (postings == null) {
+                    postings = created;
+                }
+            }
+            postings.add(position);
+        }
+    }
+
+    //объединение списков всех токенов, начинающихся с term
+    private int[] collect(String term, int limit) {
+        Map<String, Postings> range = tokens.subMap(term, true, term + Character.MAX_VALUE, false);
+        int[] buffer = EMPTY;
+        int size = 0;
+        for (Postings postings : range.values()) {
+            // размер читается раньше массива, поэтому массив точно не короче
+            int count = postings.size;
+            int[] items = postings.items;
+            if (size + count > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + count));
+            }
+            for (int i = 0; i < count; i++) {
+                if (items[i] < limit) {
+                    buffer[size++] = items[i];
+                }
+            }
+        }
+        // при одновременном добавлении номера могут прийти не по порядку, а у одного студента
+        // несколько частей ФИО могут начинаться с одного префикса
+        Arrays.sort(buffer, 0, size);
+        int unique = 0;
+        for (int i = 0; i < size; i++) {
+            if (unique == 0 || buffer[unique - 1] != buffer[i]) {
+                buffer[unique++] = buffer[i];
+            }
+        }
+        return Arrays.copyOf(buffer, unique);
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int size = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[size++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return size == result.length ? result : Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Номера студентов для одного токена. Писатели синхронизируются на самом списке, читатели
+     * сначала читают volatile размер, а затем массив, который записывается раньше размера.
+     */
+    private static class Postings {
+
+        volatile int[] items = new int[2];
+        volatile int size;
+
+        synchronized void add(int position) {
+            int size = this.size;
+            int[] items = this.items;
+            // один и тот же токен может встретиться в ФИО дважды
+            if (size > 0 && items[size - 1] == position) {
+                return;
+            }
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size] = position;
+            this.items = items;
+            this.size = size + 1;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package ru.tpu.courses.lab3;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Журнал добавленных студентов на диске, в который записи только дописываются в конец.
+ * <p>
+ * Файл отображается в память через {@link FileChannel#map}, поэтому добавление записи - это
+ * копирование нескольких десятков байт в память без системных вызовов, а при чтении данные
+ * подгружаются ядром сразу страницами. Запись, попавшая в отображённую память, переживает
+ * выгрузку процесса: её сбросит на диск ядро.
+ * <p>
+ * Формат файла: заголовок {@link #MAGIC}, {@link #VERSION}, длина занятой части файла; затем записи
+ * "длина данных, CRC32 данных, данные". Данные - имя, отчество и фамилия в UTF-8, каждое с длиной
+ * в 2 байта. Файл растёт удвоением, поэтому конец журнала берётся из заголовка, а не из длины
+ * файла. Недописанная при падении запись отбрасывается по CRC.
+ * <p>
+ * Студенты в кэше не удаляются, поэтому лишние записи появляются только если студент был дописан
+ * повторно (например, добавлен во время чтения журнала). Когда таких записей становится
+ * больше, чем нужных, журнал переписывается заново из кэша, см. {@link #compactIfNeeded}.
+ */
+final class StudentsLog {
+
+    interface Sink {
+        /**
+         * @return false, если такой студент уже был и запись лишняя.
+         */
+        boolean onStudent(@NonNull Student student);
+    }
+
+    private static final int MAGIC = 0x53544c47;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int END_OFFSET = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int MIN_CAPACITY = 64 * 1024;
+    //сжимать журнал только если лишних записей хотя бы столько байт
+    private static final int MIN_COMPACT_WASTE = 64 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File file;
+
+    private RandomAccessFile randomAccessFile;
+    private MappedByteBuffer buffer;
+    //конец журнала на момент открытия, до него записи читаются при восстановлении
+    private final int replayEnd;
+    //байты лишних записей, найденных при восстановлении
+    private long wastedBytes;
+    //в середине журнала найдена повреждённая запись, а после неё уже дописаны новые
+    private boolean corrupted;
+
+    //буферы для сборки записи, используются под блокировкой журнала
+    private byte[] record = new byte[256];
+    private final CRC32 crc = new CRC32();
+    private boolean failed;
+
+    private StudentsLog(File file) throws IOException {
+        this.file = file;
+        map(file);
+        replayEnd = buffer.getInt(END_OFFSET);
+    }
+
+    /**
+     * Открывает журнал, создавая файл при необходимости. Недописанный или чужой файл
+     * начинается заново.
+     */
+    @NonNull
+    @WorkerThread
+    static StudentsLog open(@NonNull File file) throws IOException {
+        return new StudentsLog(file);
+    }
+
+    /**
+     * Передаёт в sink всех студентов журнала в порядке добавления. Читает только записи,
+     * сделанные до открытия журнала, поэтому может идти параллельно с {@link #append(Student)}.
+     */
+    @WorkerThread
+    void replay(@NonNull Sink sink) {
+        ByteBuffer in;
+        synchronized (this) {
+            in = buffer.duplicate();
+        }
+        byte[] bytes = new byte[256];
+        CRC32 check = new CRC32();
+        int position = HEADER_SIZE;
+        while (position + RECORD_HEADER_SIZE <= replayEnd) {
+            int length = in.getInt(position);
+            int checksum = in.getInt(position + 4);
+            int start = position + RECORD_HEADER_SIZE;
+            if (length < 6 || start + length > replayEnd) {
+                break;
+            }
+            if (bytes.length < length) {
+                bytes = new byte[Math.max(bytes.length * 2, length)];
+            }
+            in.position(start);
+            in.get(bytes, 0, length);
+            check.reset();
+            check.update(bytes, 0, length);
+            if ((int) check.getValue() != checksum) {
+                break;
+            }
+            int firstLength = readLength(bytes, 0);
+            int secondLength = readLength(bytes, 2 + firstLength);
+            int lastLength = readLength(bytes, 4 + firstLength + secondLength);
+            if (6 + firstLength + secondLength + lastLength != length) {
+                break;
+            }
+            Student student = new Student(
+                    new String(bytes, 2, firstLength, UTF_8),
+                    new String(bytes, 4 + firstLength, secondLength, UTF_8),
+                    new String(bytes, 6 + firstLength + secondLength, lastLength, UTF_8)
+            );
+            if (!sink.onStudent(student)) {
+                synchronized (this) {
+                    wastedBytes += RECORD_HEADER_SIZE + length;
+                }
+            }
+            position = start + length;
+        }
+        if (position != replayEnd) {
+            synchronized (this) {
+                if (buffer.getInt(END_OFFSET) == replayEnd) {
+                    //повреждённый хвост будет перезаписан следующими записями
+                    buffer.putInt(END_OFFSET, position);
+                } else {
+                    //за повреждённой записью уже есть новые, их не прочитать без переписывания
+                    corrupted = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Дописывает студента в конец журнала. Ошибка записи, в том числе слишком длинное для формата
+     * журнала имя, отключает журнал, но не кэш.
+     */
+    synchronized void append(@NonNull Student student) {
+        if (failed) {
+            return;
+        }
+        try {
+            write(student);
+        } catch (IOException e) {
+            failed = true;
+        }
+    }
+
+    /**
+     * Переписывает журнал студентами из кэша, если лишних записей больше, чем нужных, или
+     * журнал повреждён. Пока журнал переписывается, добавления ждут. Вызывается после
+     * {@link #replay(Sink)}, когда в кэше уже есть все студенты журнала.
+     */
+    @WorkerThread
+    synchronized void compactIfNeeded(@NonNull StudentsCache cache) throws IOException {
+        int end = buffer.getInt(END_OFFSET);
+        if (failed || !corrupted && (wastedBytes < MIN_COMPACT_WASTE || wastedBytes * 2 < end)) {
+            return;
+        }
+        List<Student> students = cache.getStudents();
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            if (tmp.exists() && !tmp.delete()) {
+                throw new IOException("can't delete " + tmp);
+            }
+            RandomAccessFile old = randomAccessFile;
+            map(tmp);
+            for (int i = 0; i < students.size(); i++) {
+                write(students.get(i));
+            }
+            buffer.force();
+            old.close();
+            if (!tmp.renameTo(file)) {
+                throw new IOException("can't rename " + tmp + " to " + file);
+            }
+        } catch (IOException e) {
+            failed = true;
+            throw e;
+        }
+        wastedBytes = 0;
+        corrupted = false;
+    }
+
+    private void write(Student student) throws IOException {
+        int length = encode(student);
+        int position = buffer.getInt(END_OFFSET);
+        int end = position + RECORD_HEADER_SIZE + length;
+        if (end > buffer.capacity()) {
+            grow(end);
+        }
+        crc.reset();
+        crc.update(record, 0, length);
+        buffer.putInt(position, length);
+        buffer.putInt(position + 4, (int) crc.getValue());
+        buffer.position(position + RECORD_HEADER_SIZE);
+        buffer.put(record, 0, length);
+        //конец журнала сдвигается только после того, как запись полностью в памяти
+        buffer.putInt(END_OFFSET, end);
+    }
+
+    private int encode(Student student) throws IOException {
+        byte[] first = student.firstName.getBytes(UTF_8);
+        byte[] second = student.secondName.getBytes(UTF_8);
+        byte[] last = student.lastName.getBytes(UTF_8);
+        int length = 6 + first.length + second.length + last.length;
+        if (record.length < length) {
+            record = new byte[Math.max(record.length * 2, length)];
+        }
+        int offset = writeField(first, 0);
+        offset = writeField(second, offset);
+        writeField(last, offset);
+        return length;
+    }
+
+    private int writeField(byte[] field, int offset) throws IOException {
+        //студент уже в кэше, поэтому ошибка формата - такая же ошибка журнала, как и ошибка диска
+        if (field.length > 0xFFFF) {
+            throw new IOException("name is too long: " + field.length + " bytes");
+        }
+        record[offset] = (byte) (field.length >>> 8);
+        record[offset + 1] = (byte) field.length;
+        System.arraycopy(field, 0, record, offset + 2, field.length);
+        return offset + 2 + field.length;
+    }
+
+    private static int readLength(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
+    }
+
+    private void map(File target) throws IOException {
+        randomAccessFile = new RandomAccessFile(target, "rw");
+        long length = randomAccessFile.length();
+        FileChannel channel = randomAccessFile.getChannel();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(length, MIN_CAPACITY));
+        int end = buffer.getInt(END_OFFSET);
+        if (buffer.getInt(0) != MAGIC ||
+                buffer.getInt(4) != VERSION ||
+                end < HEADER_SIZE ||
+                end > buffer.capacity()) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(END_OFFSET, HEADER_SIZE);
+        }
+    }
+
+    private void grow(int required) throws IOException {
+        long capacity = buffer.capacity();
+        while (capacity < required) {
+            capacity *= 2;
+        }
+        if (capacity > Integer.MAX_VALUE) {
+            throw new IOException("log is too large");
+        }
+        //старое отображение остаётся валидным для идущего восстановления
+        buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+}
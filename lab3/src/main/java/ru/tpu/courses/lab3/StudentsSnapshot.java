@@ -0,0 +1,60 @@
+package ru.tpu.courses.lab3;
+
+import androidx.annotation.NonNull;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Неизменяемый снимок списка студентов из {@link StudentsCache} на момент его получения.
+ * <p>
+ * Студенты хранятся в массиве блоков фиксированного размера, который общий для всех снимков.
+ * Кэш только дописывает студентов в конец, за пределы {@link #size()} уже выданных снимков, поэтому
+ * новый снимок получается без копирования данных: достаточно создать объект с большим размером.
+ * При заполнении блока выделяется новый блок, а копируется лишь массив ссылок на блоки.
+ * Версия снимка равна количеству добавленных в кэш студентов.
+ */
+public final class StudentsSnapshot extends AbstractList<Student> implements RandomAccess {
+
+    static final int CHUNK_SHIFT = 10;
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    static final StudentsSnapshot EMPTY = new StudentsSnapshot(newChunks(0), 0, 0);
+
+    private final AtomicReferenceArray<Student>[] chunks;
+    private final int size;
+    private final long version;
+
+    StudentsSnapshot(@NonNull AtomicReferenceArray<Student>[] chunks, int size, long version) {
+        this.chunks = chunks;
+        this.size = size;
+        this.version = version;
+    }
+
+    /**
+     * Номер версии кэша. Увеличивается на 1 при каждом добавлении студента.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public Student get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index = " + index + ", size = " + size);
+        }
+        return chunks[index >>> CHUNK_SHIFT].get(index & CHUNK_MASK);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static AtomicReferenceArray<Student>[] newChunks(int count) {
+        return (AtomicReferenceArray<Student>[]) new AtomicReferenceArray[count];
+    }
+}
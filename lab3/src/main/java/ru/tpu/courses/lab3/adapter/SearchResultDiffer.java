@@ -0,0 +1,176 @@
+package ru.tpu.courses.lab3.adapter;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import ru.tpu.courses.lab3.search.SearchResult;
+
+/**
+ * Считает разницу между выведенным и новым результатом поиска на фоновом потоке и сообщает о ней
+ * на UI потоке, по аналогии с {@link androidx.recyclerview.widget.AsyncListDiffer}.
+ * <p>
+ * Оба результата отсортированы по позиции студента в кэше, а кэш только дописывается в конец,
+ * поэтому вместо общего алгоритма {@link androidx.recyclerview.widget.DiffUtil} достаточно одного
+ * слияния двух отсортированных массивов за O(N + M): перемещений быть не может, только
+ * вставки, удаления и изменения выделения у оставшихся студентов.
+ * <p>
+ * Каждый {@link #submit(SearchResult)} получает номер поколения. Если пока считалась разница
+ * пришёл более новый результат, то устаревшая разница просто выбрасывается.
+ */
+class SearchResultDiffer {
+
+    private static final Executor DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private static final int OP_INSERT = 0;
+    private static final int OP_REMOVE = 1;
+    private static final int OP_CHANGE = 2;
+
+    /**
+     * Получатель изменений, как {@link androidx.recyclerview.widget.ListUpdateCallback}, но без
+     * перемещений: слияние их не даёт. После всех операций одной разницы вызывается
+     * {@link #onDispatched()}.
+     */
+    interface Callback {
+        void onInserted(int position, int count);
+
+        void onRemoved(int position, int count);
+
+        void onChanged(int position, int count);
+
+        void onDispatched();
+    }
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Callback callback;
+
+    private SearchResult current;
+    private int generation;
+
+    SearchResultDiffer(@NonNull Callback callback, @NonNull SearchResult initial) {
+        this.callback = callback;
+        this.current = initial;
+    }
+
+    /**
+     * Выведенный сейчас результат.
+     */
+    @NonNull
+    @MainThread
+    SearchResult getCurrent() {
+        return current;
+    }
+
+    /**
+     * Сразу заменяет выведенный результат, отменяя ещё не применённые разницы. Об изменениях в
+     * списке должен сообщить вызывающий.
+     */
+    @MainThread
+    void replace(@NonNull SearchResult result) {
+        generation++;
+        current = result;
+    }
+
+    /**
+     * Считает разницу с выведенным результатом на фоновом потоке и применяет её на UI потоке,
+     * если к этому времени не пришёл более новый результат.
+     */
+    @MainThread
+    void submit(@NonNull SearchResult result) {
+        int submitted = ++generation;
+        SearchResult old = current;
+        if (old == result) {
+            return;
+        }
+        DIFF_EXECUTOR.execute(() -> {
+            int[] ops = diff(old, result);
+            mainHandler.post(() -> {
+                if (submitted != generation) {
+                    return;
+                }
+                current = result;
+                dispatch(ops);
+            });
+        });
+    }
+
+    private void dispatch(int[] ops) {
+        for (int i = 1; i < ops[0]; i += 3) {
+            switch (ops[i]) {
+                case OP_INSERT:
+                    callback.onInserted(ops[i + 1], ops[i + 2]);
+                    break;
+                case OP_REMOVE:
+                    callback.onRemoved(ops[i + 1], ops[i + 2]);
+                    break;
+                case OP_CHANGE:
+                    callback.onChanged(ops[i + 1], ops[i + 2]);
+                    break;
+            }
+        }
+        callback.onDispatched();
+    }
+
+    /**
+     * Слияние двух отсортированных по позиции результатов. Возвращает массив операций тройками
+     * "тип, позиция, количество"; позиции указаны с учётом уже применённых предыдущих операций.
+     * В нулевом элементе хранится длина занятой части массива.
+     */
+    @WorkerThread
+    private static int[] diff(SearchResult old, SearchResult result) {
+        int[] ops = new int[16];
+        ops[0] = 1;
+        int i = 0;
+        int j = 0;
+        int position = 0;
+        while (i < old.size() || j < result.size()) {
+            int oldPosition = i < old.size() ? old.getPosition(i) : Integer.MAX_VALUE;
+            int newPosition = j < result.size() ? result.getPosition(j) : Integer.MAX_VALUE;
+            if (oldPosition < newPosition) {
+                ops = add(ops, OP_REMOVE, position);
+                i++;
+            } else if (oldPosition > newPosition) {
+                ops = add(ops, OP_INSERT, position);
+                position++;
+                j++;
+            } else {
+                if (old.getStudent(i) != result.getStudent(j) || !old.sameRanges(i, result, j)) {
+                    ops = add(ops, OP_CHANGE, position);
+                }
+                position++;
+                i++;
+                j++;
+            }
+        }
+        return ops;
+    }
+
+    //добавляет операцию над одним элементом, склеивая её с предыдущей операцией того же типа
+    private static int[] add(int[] ops, int type, int position) {
+        int last = ops[0] - 3;
+        if (last > 0 && ops[last] == type) {
+            int lastPosition = ops[last + 1];
+            int lastCount = ops[last + 2];
+            // удаления идут с одной и той же позиции, вставки и изменения - подряд
+            if (type == OP_REMOVE ? position == lastPosition : position == lastPosition + lastCount) {
+                ops[last + 2]++;
+                return ops;
+            }
+        }
+        if (ops[0] + 3 > ops.length) {
+            ops = Arrays.copyOf(ops, ops.length * 2);
+        }
+        ops[ops[0]] = type;
+        ops[ops[0] + 1] = position;
+        ops[ops[0] + 2] = 1;
+        ops[0] += 3;
+        return ops;
+    }
+}
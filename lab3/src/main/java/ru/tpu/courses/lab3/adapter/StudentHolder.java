@@ -1,9 +1,12 @@
 package ru.tpu.courses.lab3.adapter;
 
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
 import android.view.LayoutInflater;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
+import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
 
 import ru.tpu.courses.lab3.R;
@@ -12,8 +15,29 @@ public class StudentHolder extends RecyclerView.ViewHolder {
 
     public final TextView student;
 
+    //переиспользуется между bind, TextView всё равно копирует переданный ему текст
+    private final SpannableStringBuilder highlightedName = new SpannableStringBuilder();
+
     public StudentHolder(ViewGroup parent) {
         super(LayoutInflater.from(parent.getContext()).inflate(R.layout.lab3_item_student, parent, false));
         student = itemView.findViewById(R.id.student);
     }
+
+    /**
+     * Выводит ФИО, выделяя цветом интервалы с from по to (не включительно) из ranges.
+     */
+    void bind(@NonNull String name, @NonNull int[] ranges, int from, int to, @NonNull HighlightSpanPool spans) {
+        if (from == to) {
+            student.setText(name);
+            return;
+        }
+        highlightedName.clearSpans();
+        highlightedName.clear();
+        highlightedName.append(name);
+        for (int i = from; i < to; i++) {
+            highlightedName.setSpan(spans.get(i - from), ranges[i * 2], ranges[i * 2 + 1],
+                    Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+        student.setText(highlightedName);
+    }
 }
@@ -1,11 +1,6 @@
 package ru.tpu.courses.lab3.adapter;
 
 import android.view.ViewGroup;
-import android.graphics.Color;
-import android.text.Spanned;
-import android.text.style.ForegroundColorSpan;
-import android.text.style.UnderlineSpan;
-import android.widget.Filter;
 
 import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
@@ -14,6 +9,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import ru.tpu.courses.lab3.Student;
+import ru.tpu.courses.lab3.search.SearchResult;
 
 /**
  * Задача Адаптера - управление View, которые содержатся в RecyclerView, с учётом его жизненного цикла.
@@ -52,15 +48,28 @@ import ru.tpu.courses.lab3.Student;
  * обновляет весь список, а остальные методы notify... говорят об изменении конкретного элемента и
  * что с ним произошло, что позволяет делать анимированные изменения в списке. При этом RecyclerView
  * всё также будет работать с теми же закэшированными ViewHolder и не будет пересоздавать все View.
+ * <p>
+ * Результаты поиска применяются через {@link SearchResultDiffer}: разница между старым и новым
+ * списком считается на фоновом потоке, а RecyclerView получает только точечные notify... для
+ * вставленных, удалённых и перевыделенных студентов.
  */
 public class StudentsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
 
     public static final int TYPE_NUMBER = 0;
     public static final int TYPE_STUDENT = 1;
 
+    //payload для строк, у которых поменялся только номер или только выделение
+    private static final Object PAYLOAD_NUMBER = new Object();
+    private static final Object PAYLOAD_HIGHLIGHT = new Object();
+
+    //спаны для выделения совпадений, вешаются только на выводимые на экран строки
+    private final HighlightSpanPool highlightSpans = new HighlightSpanPool();
+
     private List<Student> students = new ArrayList<>();
-    //хранит студентов, прошедших фильтр (этот список и выводится на экран)
-    private List<Student> filteredStudents = new ArrayList<>();
+    //хранит выведенный на экран результат поиска и применяет новые результаты
+    private final SearchResultDiffer differ =
+            new SearchResultDiffer(new PairedRowsCallback(), SearchResult.all(students));
+
     @Override
     @NonNull
     public RecyclerView.ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
@@ -73,6 +82,20 @@ public class StudentsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolde
         throw new IllegalArgumentException("unknown viewType = " + viewType);
     }
 
+    @Override
+    public void onBindViewHolder(
+            @NonNull RecyclerView.ViewHolder holder,
+            int position,
+            @NonNull List<Object> payloads
+    ) {
+        //если у строки поменялось только то, что она не выводит, то перепривязывать её не нужно
+        if (!payloads.isEmpty() && !payloads.contains(
+                getItemViewType(position) == TYPE_NUMBER ? PAYLOAD_NUMBER : PAYLOAD_HIGHLIGHT)) {
+            return;
+        }
+        onBindViewHolder(holder, position);
+    }
+
     @Override
     public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position) {
         switch (getItemViewType(position)) {
@@ -83,9 +106,15 @@ public class StudentsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolde
                 break;
             case TYPE_STUDENT:
                 StudentHolder studentHolder = (StudentHolder) holder;
-                Student student = students.get(position / 2);
-                studentHolder.student.setText(
-                        student.shownName
+                SearchResult result = differ.getCurrent();
+                int index = position / 2;
+                //выделение совпадений накладывается только при выводе строки на экран
+                studentHolder.bind(
+                        result.getStudent(index).getShownName(),
+                        result.getRanges(),
+                        result.getRangesStart(index),
+                        result.getRangesStart(index + 1),
+                        highlightSpans
                 );
                 break;
         }
@@ -93,7 +122,7 @@ public class StudentsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolde
 
     @Override
     public int getItemCount() {
-        return students.size() * 2;
+        return differ.getCurrent().size() * 2;
     }
 
     @Override
@@ -101,124 +130,56 @@ public class StudentsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolde
         return position % 2 == 0 ? TYPE_NUMBER : TYPE_STUDENT;
     }
 
+    /**
+     * Сразу выводит всех студентов из списка без фильтра. Об изменениях в списке должен сообщить
+     * вызывающий.
+     */
     public void setStudents(List<Student> students) {
         this.students = students;
-        this.filteredStudents = students;
+        differ.replace(SearchResult.all(students));
     }
 
-    //задать фильтрованный список как список с пустым фильтром
-    public void setLists()
-    {
-        filteredStudents = students;
+    /**
+     * Выводит результат поиска. Разница с выведенным списком будет посчитана в фоне и применена
+     * точечными notify...
+     */
+    public void setSearchResult(@NonNull SearchResult result) {
+        differ.submit(result);
     }
 
-    //ищет совпадения в ФИО с запросом
-    //возвращает список из чисел, представляющих собой пары "начало-конец соответствия"
-    public List<Integer> findWord (String word, String string)
-    {
-        List<Integer> list = new ArrayList<Integer>();
-
-        for (int i = 0; i < string.length(); i++)
-        {
-            if ((word.charAt(0) == string.charAt(i))&&( (i+word.length()) < string.length()+1 ))
-            {
-                int[] positions = findFromPosition(word, string, i);
-                list.add(positions[0]);
-                list.add(positions[1]);
-            }
-        }
-        return list;
-    }
+    /**
+     * Переводит изменения в списке студентов в позиции адаптера: на каждого студента приходится
+     * строка с номером и строка с ФИО. При вставке или удалении у всех следующих студентов
+     * меняется номер, поэтому их строки с номерами обновляются одним notify после всей разницы.
+     */
+    private class PairedRowsCallback implements SearchResultDiffer.Callback {
 
-    //проверяет, является ли совпадение первых букв началом всего совпадения
-    //если да - возвращает пару чисел - начало и конец совпадения
-    //если нет - возвращает две "-1"
-    public int[] findFromPosition (String word, String string, int pos)
-    {
-        boolean flag = true;
-        for (int i = 0; i < word.length(); i++)
-        {
-            if (word.charAt(i) != string.charAt(pos + i))
-            {
-                flag = false;
-                break;
-            }
-        }
+        private int firstRenumbered = Integer.MAX_VALUE;
 
-        int[] result = new int[2];
-        if (flag == true)
-        {
-            result[0] = pos;
-            result[1] = pos + word.length() - 1;
-        }
-        else
-        {
-            result[0] = -1;
-            result[1] = -1;
+        @Override
+        public void onInserted(int position, int count) {
+            notifyItemRangeInserted(position * 2, count * 2);
+            firstRenumbered = Math.min(firstRenumbered, (position + count) * 2);
         }
-        return result;
-    }
 
-    //стереть оформление цветом
-    public void clearColor (Student student)
-    {
-        ForegroundColorSpan[] spans = student.shownName.getSpans(0, student.shownName.length(), ForegroundColorSpan.class);
-        for (int i = 0; i < spans.length; i++)
-        {
-            student.shownName.removeSpan(spans[i]);
+        @Override
+        public void onRemoved(int position, int count) {
+            notifyItemRangeRemoved(position * 2, count * 2);
+            firstRenumbered = Math.min(firstRenumbered, position * 2);
         }
-    }
 
-    //фильтрация списка студентов по введенному запросу
-    public Filter getFilter() {
-        return new Filter() {
-            @Override
-            protected FilterResults performFiltering(CharSequence charSequence) {
-                //получение запроса в виде строки
-                String charString = charSequence.toString();
-
-                //проверка на пустоту
-                if (charString.isEmpty()) {
-                    //если запрос пустой - сбросить выделение у всех студентов
-                    //и очистить фильтр в списке студентов
-                    for (Student student : students) {
-                        clearColor(student);
-                    }
-                    filteredStudents = students;
-                } else {
-                    //создание списка для отфильтрованных студентов
-                    ArrayList<Student> filteredList = new ArrayList<>();
-                    for (Student student : students) {
-                        //обнаружение студента, который проходит фильтр
-                        if (student.getName().toLowerCase().contains(charString)) {
-                            //стереть предыдущие выделения
-                            clearColor(student);
-                            //нахождение интервалов совпадений в ФИО студента с запросом
-                            List<Integer> positions = findWord(charString, student.shownName.toString().toLowerCase());
-                            //задание выделения цветом для всех совпадений в ФИО
-                            for (int i = 0; i < positions.size()-1; i = i + 2)
-                            {
-                                if (positions.get(i) != -1)
-                                    student.shownName.setSpan(new ForegroundColorSpan(Color.RED), positions.get(i),
-                                            positions.get(i+1)+1, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-                            }
-                            filteredList.add(student);
-                        }
-                    }
-                    filteredStudents = filteredList;
-                }
-
-                FilterResults filterResults = new FilterResults();
-                filterResults.values = filteredStudents;
-                return filterResults;
-            }
+        @Override
+        public void onChanged(int position, int count) {
+            notifyItemRangeChanged(position * 2, count * 2, PAYLOAD_HIGHLIGHT);
+        }
 
-            //передача отфильтрованного списка студентов с обновлением их вывода на экран
-            @Override
-            protected void publishResults(CharSequence charSequence, FilterResults filterResults) {
-                filteredStudents = (ArrayList<Student>) filterResults.values;
-                notifyDataSetChanged();
+        @Override
+        public void onDispatched() {
+            int itemCount = getItemCount();
+            if (firstRenumbered < itemCount) {
+                notifyItemRangeChanged(firstRenumbered, itemCount - firstRenumbered, PAYLOAD_NUMBER);
             }
-        };
+            firstRenumbered = Integer.MAX_VALUE;
+        }
     }
 }
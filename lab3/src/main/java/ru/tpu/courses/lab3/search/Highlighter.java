@@ -0,0 +1,167 @@
+package ru.tpu.courses.lab3.search;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+import ru.tpu.courses.lab3.StudentsIndex;
+
+/**
+ * Поиск всех вхождений слов запроса в строку за один проход по алгоритму Ахо-Корасик.
+ * <p>
+ * По словам запроса один раз строится автомат (бор с суффиксными ссылками), после чего каждая
+ * строка проверяется за время, линейное от её длины, независимо от количества слов. Для одного
+ * слова автомат вырождается в алгоритм Кнута-Морриса-Пратта. Сравнение идёт без учёта регистра,
+ * без создания промежуточных строк.
+ * <p>
+ * Выделяются только вхождения с начала слова, по тому же правилу, по которому студент попадает
+ * в результат, см. {@link StudentsIndex#matches}: запрос "ов" выделит "Овчинников", но не конец
+ * "Иванов".
+ * <p>
+ * Найденные интервалы пишутся в переиспользуемый массив {@link #getRanges()} парами
+ * "начало (включительно) - конец (не включительно)". Пересекающиеся и соседние вхождения
+ * склеиваются в один интервал. Объект не потокобезопасен: на каждый поток нужен свой экземпляр.
+ */
+public class Highlighter {
+
+    private static final int ROOT = 0;
+
+    //бор хранится в массивах: символ перехода в состояние, первый потомок и следующий брат
+    private char[] chars;
+    private int[] firstChild;
+    private int[] nextSibling;
+    //суффиксная ссылка состояния
+    private int[] fail;
+    //длина самого длинного слова, заканчивающегося в этом состоянии, 0 если таких нет
+    private int[] matchLength;
+    private int stateCount;
+
+    private int[] ranges = new int[16];
+
+    /**
+     * @param terms слова запроса в нижнем регистре, см.
+     *              {@link ru.tpu.courses.lab3.StudentsIndex#terms(String)}.
+     */
+    public Highlighter(@NonNull String[] terms) {
+        int capacity = 1;
+        for (String term : terms) {
+            capacity += term.length();
+        }
+        chars = new char[capacity];
+        firstChild = new int[capacity];
+        nextSibling = new int[capacity];
+        fail = new int[capacity];
+        matchLength = new int[capacity];
+        Arrays.fill(firstChild, -1);
+        Arrays.fill(nextSibling, -1);
+        stateCount = 1;
+
+        for (String term : terms) {
+            addTerm(term);
+        }
+        buildFailLinks();
+    }
+
+    /**
+     * Ищет все вхождения слов запроса в тексте.
+     *
+     * @return количество найденных интервалов. Сами интервалы лежат в {@link #getRanges()}.
+     */
+    public int match(@NonNull CharSequence text) {
+        int count = 0;
+        int state = ROOT;
+        for (int i = 0, length = text.length(); i < length; i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+            int next = child(state, c);
+            while (next < 0 && state != ROOT) {
+                state = fail[state];
+                next = child(state, c);
+            }
+            state = next < 0 ? ROOT : next;
+
+            int matched = matchLength[state];
+            if (matched == 0) {
+                continue;
+            }
+            int start = i + 1 - matched;
+            //слова запроса состоят только из букв и цифр, поэтому если самое длинное из
+            //заканчивающихся здесь слов начинается в середине слова текста, то и более короткие тоже
+            if (!StudentsIndex.isTokenStart(text, start)) {
+                continue;
+            }
+            int end = i + 1;
+            //новое вхождение может перекрыть несколько предыдущих интервалов
+            while (count > 0 && start <= ranges[count * 2 - 1]) {
+                count--;
+                start = Math.min(start, ranges[count * 2]);
+            }
+            if (count * 2 == ranges.length) {
+                ranges = Arrays.copyOf(ranges, ranges.length * 2);
+            }
+            ranges[count * 2] = start;
+            ranges[count * 2 + 1] = end;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Интервалы, найденные последним вызовом {@link #match(CharSequence)}. Массив переиспользуется
+     * между вызовами, значимы только первые {@code 2 * count} элементов.
+     */
+    @NonNull
+    public int[] getRanges() {
+        return ranges;
+    }
+
+    private void addTerm(String term) {
+        int state = ROOT;
+        for (int i = 0; i < term.length(); i++) {
+            char c = term.charAt(i);
+            int next = child(state, c);
+            if (next < 0) {
+                next = stateCount++;
+                chars[next] = c;
+                nextSibling[next] = firstChild[state];
+                firstChild[state] = next;
+            }
+            state = next;
+        }
+        matchLength[state] = Math.max(matchLength[state], term.length());
+    }
+
+    //обход бора в ширину, суффиксные ссылки родителей вычисляются раньше потомков
+    private void buildFailLinks() {
+        int[] queue = new int[stateCount];
+        int head = 0;
+        int tail = 0;
+        for (int child = firstChild[ROOT]; child >= 0; child = nextSibling[child]) {
+            fail[child] = ROOT;
+            queue[tail++] = child;
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            for (int child = firstChild[state]; child >= 0; child = nextSibling[child]) {
+                int link = fail[state];
+                int next = child(link, chars[child]);
+                while (next < 0 && link != ROOT) {
+                    link = fail[link];
+                    next = child(link, chars[child]);
+                }
+                fail[child] = next < 0 ? ROOT : next;
+                //если в состоянии заканчивается более длинное слово, то и все его суффиксы тоже
+                matchLength[child] = Math.max(matchLength[child], matchLength[fail[child]]);
+                queue[tail++] = child;
+            }
+        }
+    }
+
+    private int child(int state, char c) {
+        for (int child = firstChild[state]; child >= 0; child = nextSibling[child]) {
+            if (chars[child] == c) {
+                return child;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,147 @@
+package ru.tpu.courses.lab3.search;
+
+import android.os.CancellationSignal;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.util.Arrays;
+import java.util.List;
+
+import ru.tpu.courses.lab3.Student;
+
+/**
+ * Неизменяемый результат одного поискового запроса.
+ * <p>
+ * Хранит список, по которому шёл поиск, позиции найденных в нём студентов и интервалы выделения
+ * совпадений для каждого из них. Интервалы всех студентов лежат подряд в одном массиве
+ * {@code ranges} парами "начало-конец", а {@code offsets[i]} указывает, с какой пары начинаются
+ * интервалы i-го найденного студента. Сами студенты при этом не изменяются, поэтому результат
+ * можно безопасно создать на фоновом потоке и читать с UI потока.
+ * <p>
+ * Пустой запрос представлен результатом {@link #all(List)}, в котором позиции не хранятся, а
+ * совпадают с индексами списка.
+ */
+public final class SearchResult {
+
+    private final List<Student> source;
+    private final int[] positions;
+    private final int[] offsets;
+    private final int[] ranges;
+
+    private static final int[] NO_RANGES = new int[0];
+
+    //отмена проверяется раз в столько студентов, чтобы не синхронизироваться на каждом
+    static final int CANCEL_CHECK_MASK = 0xFF;
+
+    private SearchResult(List<Student> source, int[] positions, int[] offsets, int[] ranges) {
+        this.source = source;
+        this.positions = positions;
+        this.offsets = offsets;
+        this.ranges = ranges;
+    }
+
+    /**
+     * Результат без фильтра: все студенты списка без выделения. Создаётся за O(1).
+     */
+    @NonNull
+    public static SearchResult all(@NonNull List<Student> source) {
+        return new SearchResult(source, null, null, NO_RANGES);
+    }
+
+    /**
+     * Находит интервалы выделения для каждого найденного студента.
+     *
+     * @param positions позиции найденных студентов в source.
+     * @throws android.os.OperationCanceledException если построение было отменено.
+     */
+    @NonNull
+    @WorkerThread
+    public static SearchResult build(
+            @NonNull List<Student> source,
+            @NonNull int[] positions,
+            @NonNull Highlighter highlighter,
+            @Nullable CancellationSignal signal
+    ) {
+        int[] offsets = new int[positions.length + 1];
+        int[] ranges = new int[positions.length * 2];
+        int size = 0;
+        for (int i = 0; i < positions.length; i++) {
+            if (signal != null && (i & CANCEL_CHECK_MASK) == 0) {
+                signal.throwIfCanceled();
+            }
+            offsets[i] = size / 2;
+            int count = highlighter.match(source.get(positions[i]).getShownName());
+            if (size + count * 2 > ranges.length) {
+                ranges = Arrays.copyOf(ranges, Math.max(ranges.length * 2, size + count * 2));
+            }
+            System.arraycopy(highlighter.getRanges(), 0, ranges, size, count * 2);
+            size += count * 2;
+        }
+        offsets[positions.length] = size / 2;
+        return new SearchResult(source, positions, offsets, Arrays.copyOf(ranges, size));
+    }
+
+    /**
+     * Список, по которому шёл поиск.
+     */
+    @NonNull
+    public List<Student> getSource() {
+        return source;
+    }
+
+    /**
+     * Количество найденных студентов.
+     */
+    public int size() {
+        return positions == null ? source.size() : positions.length;
+    }
+
+    @NonNull
+    public Student getStudent(int index) {
+        return source.get(getPosition(index));
+    }
+
+    /**
+     * Позиция index-го найденного студента в {@link #getSource()}.
+     */
+    public int getPosition(int index) {
+        return positions == null ? index : positions[index];
+    }
+
+    /**
+     * Номер первой пары в {@link #getRanges()}, относящейся к index-му найденному студенту.
+     * Пары этого студента заканчиваются на {@code getRangesStart(index + 1)}.
+     */
+    public int getRangesStart(int index) {
+        return offsets == null ? 0 : offsets[index];
+    }
+
+    /**
+     * Совпадают ли интервалы выделения index-го студента этого результата и otherIndex-го
+     * студента other.
+     */
+    public boolean sameRanges(int index, @NonNull SearchResult other, int otherIndex) {
+        int from = getRangesStart(index);
+        int count = getRangesStart(index + 1) - from;
+        int otherFrom = other.getRangesStart(otherIndex);
+        if (count != other.getRangesStart(otherIndex + 1) - otherFrom) {
+            return false;
+        }
+        for (int i = from * 2, j = otherFrom * 2; i < (from + count) * 2; i++, j++) {
+            if (ranges[i] != other.ranges[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Интервалы выделения всех найденных студентов. Массив не должен изменяться.
+     */
+    @NonNull
+    public int[] getRanges() {
+        return ranges;
+    }
+}
@@ -0,0 +1,204 @@
+package ru.tpu.courses.lab3.search;
+
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import ru.tpu.courses.lab3.Student;
+import ru.tpu.courses.lab3.StudentsCache;
+import ru.tpu.courses.lab3.StudentsIndex;
+
+/**
+ * Запускает поиск по вводимому запросу.
+ * <p>
+ * Запросы, набранные быстрее чем за {@code debounceMillis}, склеиваются в один: поиск начинается
+ * только когда пользователь перестал печатать. Новый запрос отменяет уже идущий поиск через
+ * {@link CancellationSignal}, а результат доходит до {@link Callback} только если после него не
+ * было более нового запроса. Очистка запроса применяется без задержки.
+ * <p>
+ * Для подбора окна склейки запоминается задержка последних запросов: от последнего нажатия до
+ * выдачи результата на UI потоке, см. {@link #getLatencyPercentile(int)}.
+ * <p>
+ * Все методы, кроме поиска, вызываются с UI потока.
+ */
+public class SearchScheduler {
+
+    private static final String TAG = SearchScheduler.class.getSimpleName();
+
+    //сколько последних задержек хранится для статистики
+    private static final int LATENCY_HISTORY = 64;
+
+    public interface Callback {
+        @MainThread
+        void onSearchResult(@NonNull SearchResult result);
+    }
+
+    private final StudentsCache cache;
+    private final long debounceMillis;
+    private final Callback callback;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    //один поток, т.к. StudentsSearcher хранит состояние между запросами
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    //используется только с потока executor
+    private final StudentsSearcher searcher;
+
+    //запрос, ожидающий окончания окна склейки, и время последнего нажатия
+    private String pendingQuery;
+    private long pendingSince;
+    //отмена последнего запущенного поиска, null - если поиск не идёт
+    private CancellationSignal inFlight;
+    //последний запрошенный запрос, "" - если фильтр пустой
+    private String query = "";
+
+    private final long[] latencies = new long[LATENCY_HISTORY];
+    private int latencyCount;
+
+    private final Runnable startPending = () -> start(pendingQuery, pendingSince);
+
+    public SearchScheduler(@NonNull StudentsCache cache, long debounceMillis, @NonNull Callback callback) {
+        this.cache = cache;
+        this.debounceMillis = debounceMillis;
+        this.callback = callback;
+        this.searcher = new StudentsSearcher(cache.getIndex());
+    }
+
+    /**
+     * Запрос изменился. Поиск будет запущен, если за {@code debounceMillis} не придёт следующий.
+     */
+    @MainThread
+    public void submit(@NonNull String query) {
+        schedule(query, StudentsIndex.terms(query).length == 0 ? 0 : debounceMillis);
+    }
+
+    /**
+     * Запрос подтверждён, поиск запускается сразу.
+     */
+    @MainThread
+    public void submitNow(@NonNull String query) {
+        schedule(query, 0);
+    }
+
+    /**
+     * Повторяет последний запрос по текущему списку студентов, например после добавления студента.
+     *
+     * @return false, если фильтр пустой и повторять нечего.
+     */
+    @MainThread
+    public boolean refresh() {
+        if (StudentsIndex.terms(query).length == 0) {
+            return false;
+        }
+        schedule(query, 0);
+        return true;
+    }
+
+    /**
+     * Отменяет ожидающий и идущий поиск и останавливает поток поиска. Вызывается при уничтожении
+     * экрана, после этого планировщик не используется.
+     */
+    @MainThread
+    public void release() {
+        cancel();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Процентиль задержки последних запросов в миллисекундах, -1 если запросов ещё не было.
+     *
+     * @param percentile от 0 до 100.
+     */
+    @MainThread
+    public long getLatencyPercentile(int percentile) {
+        int count = Math.min(latencyCount, LATENCY_HISTORY);
+        if (count == 0) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        return sorted[Math.min(count - 1, count * percentile / 100)];
+    }
+
+    private void schedule(String query, long delay) {
+        this.query = query;
+        cancel();
+        pendingQuery = query;
+        pendingSince = SystemClock.uptimeMillis();
+        if (delay == 0) {
+            startPending.run();
+        } else {
+            mainHandler.postDelayed(startPending, delay);
+        }
+    }
+
+    private void cancel() {
+        mainHandler.removeCallbacks(startPending);
+        if (inFlight != null) {
+            inFlight.cancel();
+            inFlight = null;
+        }
+    }
+
+    private void start(String query, long submittedAt) {
+        CancellationSignal signal = new CancellationSignal();
+        inFlight = signal;
+        //снимок кэша получается без блокировок и не меняется во время поиска
+        List<Student> source = cache.getStudents();
+        executor.execute(() -> {
+            SearchResult result;
+            try {
+                result = search(source, query, signal);
+            } catch (OperationCanceledException e) {
+                return;
+            }
+            mainHandler.post(() -> {
+                //пока результат шёл на UI поток, мог прийти новый запрос
+                if (signal != inFlight) {
+                    return;
+                }
+                inFlight = null;
+                recordLatency(SystemClock.uptimeMillis() - submittedAt);
+                callback.onSearchResult(result);
+            });
+        });
+    }
+
+    @WorkerThread
+    private SearchResult search(List<Student> source, String query, CancellationSignal signal) {
+        signal.throwIfCanceled();
+        //разбиение запроса на слова в нижнем регистре
+        String[] terms = StudentsIndex.terms(query);
+        if (terms.length == 0) {
+            //если запрос пустой - очистить фильтр в списке студентов
+            searcher.reset();
+            return SearchResult.all(source);
+        }
+        //номера студентов, прошедших фильтр, берутся из индекса без перебора всего списка,
+        //а если запрос только дописан - из результата предыдущего запроса
+        int[] positions = searcher.search(source, terms, signal);
+        //интервалы совпадений ищутся автоматом, построенным один раз на весь запрос
+        return SearchResult.build(source, positions, new Highlighter(terms), signal);
+    }
+
+    private void recordLatency(long latency) {
+        latencies[latencyCount % LATENCY_HISTORY] = latency;
+        latencyCount++;
+        if (latencyCount % LATENCY_HISTORY == 0) {
+            Log.d(TAG, "latency p50 = " + getLatencyPercentile(50) +
+                    " ms, p90 = " + getLatencyPercentile(90) +
+                    " ms, debounce = " + debounceMillis + " ms");
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package ru.tpu.courses.lab3.search;
+
+import android.os.CancellationSignal;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.util.Arrays;
+import java.util.List;
+
+import ru.tpu.courses.lab3.Student;
+import ru.tpu.courses.lab3.StudentsIndex;
+
+/**
+ * Поиск студентов при вводе запроса по буквам.
+ * <p>
+ * Запоминает предыдущий запрос и его результат. Если новый запрос только дописывает предыдущий
+ * ("ив" -> "ива"), то под него могут подойти только уже найденные студенты, поэтому проверяются
+ * только они. При удалении символов, правке запроса или смене списка студентов поиск идёт заново
+ * через {@link StudentsIndex}.
+ * <p>
+ * Хранит состояние между вызовами, поэтому должен использоваться с одного потока (например, с
+ * рабочего потока {@link SearchScheduler}). Отменённый поиск запомненное состояние не меняет.
+ */
+public class StudentsSearcher {
+
+    private final StudentsIndex index;
+
+    private List<Student> lastSource;
+    private int lastSourceSize;
+    private String lastQuery;
+    private int[] lastPositions;
+
+    public StudentsSearcher(@NonNull StudentsIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * @param source список студентов, позиции в котором совпадают с номерами в индексе.
+     * @param terms  слова запроса, см. {@link StudentsIndex#terms(String)}. Не должны быть пустыми.
+     * @param signal отмена поиска, проверяется при переборе уже найденных студентов.
+     * @return отсортированные позиции подходящих студентов в source.
+     * @throws android.os.OperationCanceledException если поиск был отменён.
+     */
+    @NonNull
+    @WorkerThread
+    public int[] search(
+            @NonNull List<Student> source,
+            @NonNull String[] terms,
+            @Nullable CancellationSignal signal
+    ) {
+        String query = join(terms);
+        int[] positions;
+        if (canNarrow(source, query)) {
+            positions = narrow(source, terms, lastPositions, signal);
+        } else {
+            positions = index.search(terms, source.size());
+        }
+        lastSource = source;
+        lastSourceSize = source.size();
+        lastQuery = query;
+        lastPositions = positions;
+        return positions;
+    }
+
+    /**
+     * Сбрасывает запомненный результат, например когда запрос был очищен.
+     */
+    public void reset() {
+        lastSource = null;
+        lastQuery = null;
+        lastPositions = null;
+    }
+
+    private boolean canNarrow(List<Student> source, String query) {
+        return lastPositions != null &&
+                source == lastSource &&
+                source.size() == lastSourceSize &&
+                query.startsWith(lastQuery);
+    }
+
+    private static int[] narrow(
+            List<Student> source,
+            String[] terms,
+            int[] candidates,
+            CancellationSignal signal
+    ) {
+        int[] positions = new int[candidates.length];
+        int size = 0;
+        for (int i = 0; i < candidates.length; i++) {
+            if (signal != null && (i & SearchResult.CANCEL_CHECK_MASK) == 0) {
+                signal.throwIfCanceled();
+            }
+            if (StudentsIndex.matches(source.get(candidates[i]), terms)) {
+                positions[size++] = candidates[i];
+            }
+        }
+        return size == positions.length ? positions : Arrays.copyOf(positions, size);
+    }
+
+    private static String join(String[] terms) {
+        StringBuilder builder = new StringBuilder();
+        for (String term : terms) {
+            if (builder.length() > 0) {
+                builder.append(' ');
+            }
+            builder.append(term);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,119 @@
+package ru.tpu.courses.lab3;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Замер памяти на одного студента в куче: {@link Student} против прежнего представления, в
+ * котором у каждого студента свои копии имени и отчества и готовая строка для вывода.
+ * <p>
+ * Память считается как разница занятой кучи до и после создания {@link #STUDENTS} студентов,
+ * поэтому замер приблизительный и зависит от JVM: на HotSpot со сжатыми ссылками заголовок
+ * объекта 12 байт, на ART - 8, но соотношение "до" и "после" сохраняется.
+ */
+public class StudentFootprintTest {
+
+    private static final int STUDENTS = 200_000;
+    // имена и отчества сильно повторяются, фамилии почти все разные
+    private static final String[] FIRST_NAMES = {
+            "Иван", "Пётр", "Анна", "Мария", "Сергей", "Ольга", "Алексей", "Елена", "Дмитрий", "Наталья"
+    };
+    private static final String[] SECOND_NAMES = {
+            "Иванович", "Петрович", "Сергеевна", "Алексеевна", "Дмитриевич", "Андреевич"
+    };
+
+    /**
+     * Студент до сжатия: три строки и SpannableString с ФИО. У только что созданной
+     * SpannableString без разметки своя строка текста и общие пустые массивы разметки, поэтому
+     * она представлена объектом с теми же полями.
+     */
+    private static class LegacyStudent {
+        private static final Object[] EMPTY_SPANS = new Object[0];
+        private static final int[] EMPTY_SPAN_DATA = new int[0];
+
+        final String firstName;
+        final String secondName;
+        final String lastName;
+        final LegacySpannable shownName;
+
+        LegacyStudent(String firstName, String secondName, String lastName) {
+            this.firstName = firstName;
+            this.secondName = secondName;
+            this.lastName = lastName;
+            shownName = new LegacySpannable(lastName + " " + firstName + " " + secondName);
+        }
+    }
+
+    private static class LegacySpannable {
+        final String text;
+        final Object[] spans = LegacyStudent.EMPTY_SPANS;
+        final int[] spanData = LegacyStudent.EMPTY_SPAN_DATA;
+        int spanCount;
+
+        LegacySpannable(String text) {
+            this.text = text;
+        }
+    }
+
+    @Test
+    public void compactStudentIsSmaller() {
+        long legacy = measure(i -> new LegacyStudent(firstName(i), secondName(i), lastName(i)));
+        long compact = measure(i -> new Student(firstName(i), secondName(i), lastName(i)));
+        // ФИО для вывода собирается только для показанных на экране строк
+        long compactShown = measure(i -> {
+            Student student = new Student(firstName(i), secondName(i), lastName(i));
+            student.getShownName();
+            return student;
+        });
+        // на HotSpot 17 со сжатыми ссылками: до 347 байт, после 99, после с ФИО для вывода 200
+        String measured = "bytes per student: before " + legacy +
+                ", after " + compact +
+                ", after with shown name " + compactShown;
+        assertTrue(measured, compact * 2 < legacy);
+        // даже с собранным ФИО студент меньше прежнего, у которого ФИО было всегда
+        assertTrue(measured, compactShown < legacy);
+    }
+
+    private interface Factory {
+        Object create(int i);
+    }
+
+    private static long measure(Factory factory) {
+        // прогрев, чтобы в замер не попали классы и пул имён
+        Object[] warmUp = new Object[1000];
+        for (int i = 0; i < warmUp.length; i++) {
+            warmUp[i] = factory.create(i);
+        }
+        Object[] students = new Object[STUDENTS];
+        long before = usedMemory();
+        for (int i = 0; i < STUDENTS; i++) {
+            students[i] = factory.create(i);
+        }
+        long after = usedMemory();
+        // массив должен дожить до замера
+        assertTrue(students[STUDENTS - 1] != null && warmUp[0] != null);
+        return (after - before) / STUDENTS;
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    // каждая строка - новый объект, как при чтении из Parcel или из поля ввода
+    private static String firstName(int i) {
+        return new String(FIRST_NAMES[i % FIRST_NAMES.length].toCharArray());
+    }
+
+    private static String secondName(int i) {
+        return new String(SECOND_NAMES[i % SECOND_NAMES.length].toCharArray());
+    }
+
+    private static String lastName(int i) {
+        return "Фамилия" + i;
+    }
+}
@@ -0,0 +1,104 @@
+package ru.tpu.courses.lab3;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Нагрузочный тест {@link StudentsCache}: несколько потоков одновременно добавляют студентов
+ * с пересекающимися ФИО, а читатели в это время проверяют снимки и {@link StudentsCache#contains}.
+ */
+public class StudentsCacheStressTest {
+
+    private static final int WRITERS = 8;
+    private static final int READERS = 4;
+    private static final int STUDENTS_PER_WRITER = 20_000;
+    // каждый писатель пересекается с соседним на половину своих студентов
+    private static final int UNIQUE_STUDENTS = STUDENTS_PER_WRITER / 2 * (WRITERS + 1);
+
+    @Test(timeout = 60_000)
+    public void concurrentAddAndContains() throws Exception {
+        StudentsCache cache = new StudentsCache();
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Thread[] writers = new Thread[WRITERS];
+        for (int w = 0; w < WRITERS; w++) {
+            int first = w * STUDENTS_PER_WRITER / 2;
+            writers[w] = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = first; i < first + STUDENTS_PER_WRITER; i++) {
+                        Student student = student(i);
+                        cache.addStudent(student);
+                        assertTrue("added student is not visible", cache.contains(student));
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+        }
+
+        Thread[] readers = new Thread[READERS];
+        for (int r = 0; r < READERS; r++) {
+            readers[r] = new Thread(() -> {
+                try {
+                    start.await();
+                    int lastSize = 0;
+                    while (writing.get()) {
+                        List<Student> snapshot = cache.getStudents();
+                        assertTrue("snapshot shrank", snapshot.size() >= lastSize);
+                        // все опубликованные позиции заполнены, а их студенты уже в множестве
+                        for (int i = lastSize; i < snapshot.size(); i++) {
+                            assertNotNull("gap at " + i, snapshot.get(i));
+                            assertTrue(cache.contains(snapshot.get(i)));
+                        }
+                        lastSize = snapshot.size();
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+        }
+
+        for (Thread thread : writers) thread.start();
+        for (Thread thread : readers) thread.start();
+        start.countDown();
+        for (Thread thread : writers) thread.join();
+        writing.set(false);
+        for (Thread thread : readers) thread.join();
+
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+
+        StudentsSnapshot students = cache.getStudents();
+        assertEquals(UNIQUE_STUDENTS, students.size());
+        assertEquals(UNIQUE_STUDENTS, students.getVersion());
+        Set<Student> unique = new HashSet<>(students);
+        assertEquals("duplicates in snapshot", UNIQUE_STUDENTS, unique.size());
+        for (int i = 0; i < UNIQUE_STUDENTS; i++) {
+            assertTrue(cache.contains(student(i)));
+        }
+        // каждый студент находится в индексе ровно по своей позиции
+        int[] positions = cache.getIndex().search("first", students.size());
+        assertEquals(UNIQUE_STUDENTS, positions.length);
+        for (int i = 0; i < positions.length; i++) {
+            assertEquals(i, positions[i]);
+        }
+    }
+
+    private static Student student(int i) {
+        return new Student("First" + i, "Second" + (i % 100), "Last" + (i % 1000));
+    }
+}
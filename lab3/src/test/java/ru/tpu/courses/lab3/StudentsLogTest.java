@@ -0,0 +1,66 @@
+package ru.tpu.courses.lab3;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Тесты {@link StudentsLog} на временном файле.
+ */
+public class StudentsLogTest {
+
+    private final File file = new File(System.getProperty("java.io.tmpdir"), "students_log_test.bin");
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    @Test
+    public void appendedStudentsAreReplayed() throws Exception {
+        file.delete();
+        StudentsLog log = StudentsLog.open(file);
+        log.append(new Student("Иван", "Иванович", "Иванов"));
+        log.append(new Student("Пётр", "Петрович", "Петров"));
+
+        assertEquals(
+                Arrays.asList(
+                        new Student("Иван", "Иванович", "Иванов"),
+                        new Student("Пётр", "Петрович", "Петров")
+                ),
+                replay(StudentsLog.open(file))
+        );
+    }
+
+    /**
+     * Имя длиннее 0xFFFF байт не помещается в формат записи: журнал отключается, как при ошибке
+     * диска, а не бросает исключение в того, кто добавляет студента.
+     */
+    @Test
+    public void tooLongNameDisablesLog() throws Exception {
+        file.delete();
+        char[] name = new char[0x10000];
+        Arrays.fill(name, 'а');
+        StudentsLog log = StudentsLog.open(file);
+        log.append(new Student("Иван", "Иванович", "Иванов"));
+        log.append(new Student(new String(name), "Петрович", "Петров"));
+        log.append(new Student("Сидор", "Сидорович", "Сидоров"));
+
+        assertEquals(
+                Arrays.asList(new Student("Иван", "Иванович", "Иванов")),
+                replay(StudentsLog.open(file))
+        );
+    }
+
+    private static List<Student> replay(StudentsLog log) {
+        List<Student> students = new ArrayList<>();
+        log.replay(students::add);
+        return students;
+    }
+}
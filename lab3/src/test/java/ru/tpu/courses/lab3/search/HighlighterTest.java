@@ -0,0 +1,47 @@
+package ru.tpu.courses.lab3.search;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Тесты {@link Highlighter}: выделяются только вхождения с начала слова, как в
+ * {@link ru.tpu.courses.lab3.StudentsIndex#matches}.
+ */
+public class HighlighterTest {
+
+    @Test
+    public void matchesWordStartsOnly() {
+        assertArrayEquals(new int[]{7, 9}, match("Иванов Овчинников", "ов"));
+    }
+
+    @Test
+    public void ignoresCase() {
+        assertArrayEquals(new int[]{0, 2, 7, 10}, match("Иванов Пётр", "ив", "ПЁТ"));
+    }
+
+    /**
+     * Оба слова запроса встречаются в середине "Кирилл", но с начала слова - только "л" в "Лев".
+     */
+    @Test
+    public void skipsMidWordMatchesOfEveryTerm() {
+        assertArrayEquals(new int[]{7, 8}, match("Кирилл Лев", "илл", "л"));
+    }
+
+    @Test
+    public void separatorsStartWords() {
+        assertArrayEquals(new int[]{5, 7, 11, 13}, match("Анна-Мария Ма", "ма"));
+    }
+
+    private static int[] match(String text, String... terms) {
+        String[] lower = new String[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            lower[i] = terms[i].toLowerCase();
+        }
+        Highlighter highlighter = new Highlighter(lower);
+        int count = highlighter.match(text);
+        return Arrays.copyOf(highlighter.getRanges(), count * 2);
+    }
+}
@@ -0,0 +1,169 @@
+package ru.tpu.courses.lab4.db;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.sqlite.db.SupportSQLiteStatement;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Замер пропускной способности чтения и записи при разных {@link Lab4Database.Config} на
+ * устройстве. Запускается как обычный инструментальный тест, результаты пишутся в лог с тегом
+ * {@link #TAG}.
+ * <p>
+ * Настройки применяются к БД только при её создании, а {@link Lab4Database#getInstance} одна на
+ * процесс, поэтому для каждого замера создаётся отдельная БД через {@link Lab4Database#create}:
+ * схема, PRAGMA и {@link HotQueries} те же, что и в приложении. Нагрузка похожа на список групп:
+ * один поток изменяет студентов по одному, как {@link Lab4Repository#updateStudent}, а потоки
+ * чтения по очереди считают номер студента в группе и читают страницу группы.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ConcurrencyBenchmark {
+
+    private static final String TAG = "Lab4Benchmark";
+
+    private static final int STUDENTS = 100_000;
+    private static final int GROUPS = 1000;
+    private static final int PAGE_SIZE = 50;
+    private static final long DURATION_MS = 3000;
+
+    private static final String DB_NAME = "lab4_benchmark";
+
+    /**
+     * Результат одного замера в операциях в секунду.
+     */
+    private static class Throughput {
+        long reads;
+        long writes;
+    }
+
+    @Test
+    public void mixedReadWrite() throws Exception {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        for (boolean wal : new boolean[]{true, false}) {
+            for (int readers : new int[]{1, 2, 4}) {
+                run(context, wal, readers, true);
+            }
+        }
+        // скомпилированный запрос против запроса Room при настройках по умолчанию
+        run(context, true, 2, false);
+    }
+
+    private static void run(Context context, boolean wal, int readers, boolean compiled) throws Exception {
+        Lab4Database.Config config = new Lab4Database.Config();
+        config.writeAheadLogging = wal;
+        config.readerThreads = readers;
+        config.compiledStatements = compiled;
+        // без WAL надёжен только FULL, см. Config#synchronous
+        config.synchronous = wal ? Lab4Database.Config.SYNCHRONOUS_NORMAL : Lab4Database.Config.SYNCHRONOUS_FULL;
+
+        context.deleteDatabase(DB_NAME);
+        Lab4Database db = Lab4Database.create(context, config, DB_NAME);
+        try {
+            fill(db);
+            Throughput throughput = measure(db, config);
+            String result = (wal ? "WAL" : "TRUNCATE") +
+                    ", synchronous " + config.synchronous +
+                    ", readers " + readers +
+                    ", compiled " + compiled +
+                    ": reads " + throughput.reads + "/s, writes " + throughput.writes + "/s";
+            Log.i(TAG, result);
+            assertTrue(result, throughput.reads > 0 && throughput.writes > 0);
+        } finally {
+            db.close();
+            context.deleteDatabase(DB_NAME);
+        }
+    }
+
+    // студенты вставляются в таблицы Lab4Database вместе с её индексами и триггерами
+    private static void fill(Lab4Database db) {
+        Random random = new Random(1);
+        SupportSQLiteStatement insert = db.compileStatement(
+                "INSERT OR IGNORE INTO student (first_name, second_name, last_name, group_id) VALUES (?, ?, ?, ?)");
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < STUDENTS; i++) {
+                insert.bindString(1, "Имя" + random.nextInt(50));
+                insert.bindString(2, "Отчество" + random.nextInt(30));
+                insert.bindString(3, "Фамилия" + random.nextInt(STUDENTS));
+                insert.bindLong(4, random.nextInt(GROUPS));
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            close(insert);
+        }
+    }
+
+    private static Throughput measure(Lab4Database db, Lab4Database.Config config) throws InterruptedException {
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong reads = new AtomicLong();
+        AtomicLong writes = new AtomicLong();
+        Thread[] threads = new Thread[config.readerThreads + 1];
+        threads[0] = new Thread(() -> {
+            Random random = new Random(2);
+            SupportSQLiteStatement update = db.compileStatement(
+                    "UPDATE OR IGNORE student SET last_name = ? WHERE id = ?");
+            while (!stop.get()) {
+                db.beginTransaction();
+                try {
+                    update.bindString(1, "Фамилия" + random.nextInt(STUDENTS));
+                    update.bindLong(2, 1 + random.nextInt(STUDENTS));
+                    update.executeUpdateDelete();
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                writes.incrementAndGet();
+            }
+            close(update);
+        });
+        for (int i = 1; i < threads.length; i++) {
+            int seed = i;
+            threads[i] = new Thread(() -> {
+                Random random = new Random(seed + 2);
+                while (!stop.get()) {
+                    int groupId = random.nextInt(GROUPS);
+                    String lastName = "Фамилия" + random.nextInt(STUDENTS);
+                    int id = random.nextInt(STUDENTS);
+                    // HotQueries или запрос Room, в зависимости от Config#compiledStatements
+                    db.countStudentsBefore(groupId, lastName, id);
+                    db.studentDao().getGroupPageAt(groupId, 0, PAGE_SIZE);
+                    reads.incrementAndGet();
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        Thread.sleep(DURATION_MS);
+        stop.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Throughput throughput = new Throughput();
+        throughput.reads = reads.get() * 1000 / DURATION_MS;
+        throughput.writes = writes.get() * 1000 / DURATION_MS;
+        return throughput;
+    }
+
+    private static void close(SupportSQLiteStatement statement) {
+        try {
+            statement.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -3,26 +3,29 @@ package ru.tpu.courses.lab4;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
-import android.util.Log;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.SearchView;
+import androidx.core.view.MenuItemCompat;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 
 import ru.tpu.courses.lab4.adapter.GroupStudentAdapter;
+import ru.tpu.courses.lab4.adapter.GroupStudentPager;
+import ru.tpu.courses.lab4.adapter.StudentSearchAdapter;
 import ru.tpu.courses.lab4.add.AddStudentActivity;
 import ru.tpu.courses.lab4.add.AddGroupActivity;
 import ru.tpu.courses.lab4.add.TempActivityPref;
-import ru.tpu.courses.lab4.add.TempStudentPref;
-import ru.tpu.courses.lab4.db.Lab4Database;
-import ru.tpu.courses.lab4.db.Student;
-import ru.tpu.courses.lab4.db.StudentDao;
-import ru.tpu.courses.lab4.db.Group;
-import ru.tpu.courses.lab4.db.GroupDao;
+import ru.tpu.courses.lab4.db.Lab4Repository;
 
 /**
  * <b>Взаимодействие с файловой системой, SQLite</b>
@@ -44,19 +47,30 @@ public class Lab4Activity extends AppCompatActivity implements GroupStudentAdapt
     private static final int REQUEST_STUDENT_EDIT = 2;
     private static final int REQUEST_GROUP_ADD = 3;
 
+    private static final int SEARCH_LIMIT = 100;
+    // запросы, набранные быстрее, склеиваются в один, как в lab3
+    private static final long SEARCH_DEBOUNCE_MS = 150;
+
     private TempActivityPref activityPref;
 
     public static Intent newIntent(@NonNull Context context) {
         return new Intent(context, Lab4Activity.class);
     }
 
-    private StudentDao studentDao;
-    private GroupDao groupDao;
+    private Lab4Repository repository;
 
     private RecyclerView list;
     private FloatingActionButton fab,fabGroup;
 
     private GroupStudentAdapter groupStudentAdapter;
+    private StudentSearchAdapter searchAdapter;
+
+    //текущий поисковый запрос, пустой если выводится весь список
+    private String searchQuery = "";
+    //отмена последнего запущенного поиска, null - если поиск не идёт
+    private CancellationSignal searchSignal;
+    private final Handler searchHandler = new Handler(Looper.getMainLooper());
+    private final Runnable startSearch = this::startSearch;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -64,10 +78,10 @@ public class Lab4Activity extends AppCompatActivity implements GroupStudentAdapt
 
         activityPref = new TempActivityPref(this);
         /*
-        Получаем объект для выполнения запросов к БД. См. Lab4Database.
+        Получаем объект для выполнения запросов к БД. Запросы выполняются в фоне, а результат
+        приходит на UI поток. См. Lab4Repository.
          */
-        studentDao = Lab4Database.getInstance(this).studentDao();
-        groupDao = Lab4Database.getInstance(this).groupDao();
+        repository = new Lab4Repository(this);
 
         setTitle(getString(R.string.lab4_title, getClass().getSimpleName()));
 
@@ -81,9 +95,11 @@ public class Lab4Activity extends AppCompatActivity implements GroupStudentAdapt
 
         // Точно такой же список, как и в lab3, но с добавленным выводом фото
         list.setAdapter(groupStudentAdapter = new GroupStudentAdapter(this));
-        groupStudentAdapter.setData(studentDao.getAll(), groupDao.getAll());
-
-        list.scrollToPosition(activityPref.getPosition());
+        searchAdapter = new StudentSearchAdapter(this);
+        // Сначала загружаются только группы с количеством студентов, а сами студенты подгружаются
+        // страницами по мере прокрутки, см. GroupStudentPager. Список перезагружается при любом
+        // изменении студентов или групп в БД, в том числе с других экранов
+        repository.observe(this::reloadList, "student", "group");
 
         fab.setOnClickListener(
                 v -> startActivityForResult(
@@ -100,46 +116,129 @@ public class Lab4Activity extends AppCompatActivity implements GroupStudentAdapt
         );
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        cancelSearch();
+        repository.cancel();
+    }
+
     @Override
     protected void onPause() {
         super.onPause();
 
         View firstChild = list.getChildAt(0);
+        // список загружается в фоне и может быть ещё пустым, а позиция в результатах поиска не
+        // сохраняется
+        if (firstChild == null || list.getAdapter() != groupStudentAdapter) {
+            return;
+        }
         int firstVisiblePosition = list.getChildAdapterPosition(firstChild);
         int offset = firstChild.getTop();
 
         activityPref.set(firstVisiblePosition);
     }
 
+    /**
+     * Загружает список в первый раз, а затем обновляет его после изменений в БД, сообщая только об
+     * изменившихся строках, см. {@link GroupStudentAdapter#submitUpdate}.
+     */
+    private void reloadList() {
+        repository.loadGroupListUpdate(update -> {
+            if (update == null) {
+                // список остаётся прежним до следующего изменения
+                return;
+            }
+            if (!groupStudentAdapter.submitUpdate(update)) {
+                groupStudentAdapter.setPager(new GroupStudentPager(repository, update.groups));
+                groupStudentAdapter.notifyDataSetChanged();
+                list.scrollToPosition(activityPref.getPosition());
+            }
+        });
+        if (!searchQuery.isEmpty()) {
+            search(searchQuery, 0);
+        }
+    }
+
     @Override
-    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
-        super.onActivityResult(requestCode, resultCode, data);
-        if (resultCode == RESULT_OK) {
-            if(requestCode == REQUEST_GROUP_ADD){
-                Group group = AddGroupActivity.getResultGroup(data);
-
-                groupDao.insert(group);
-            }else{
-                Student student = AddStudentActivity.getResultStudent(data);
-
-                if(requestCode == REQUEST_STUDENT_EDIT){
-                    int oldStudentId = AddStudentActivity.getOldStudentId();
-                    Student oldStudent = studentDao.selectStudentById(oldStudentId);
-                    studentDao.deleteStudent(oldStudent);
-                }
-                studentDao.insert(student);
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.lab4_search_student, menu);
+
+        MenuItem search = menu.findItem(R.id.search);
+        SearchView searchView = (SearchView) MenuItemCompat.getActionView(search);
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                search(query, 0);
+                return false;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                search(newText, SEARCH_DEBOUNCE_MS);
+                return true;
             }
-            groupStudentAdapter.setData(studentDao.getAll(), groupDao.getAll());
-            groupStudentAdapter.notifyDataSetChanged();
+        });
+
+        return super.onCreateOptionsMenu(menu);
+    }
+
+    /**
+     * Выводит вместо списка групп студентов, найденных по началу слов ФИО, см.
+     * {@link ru.tpu.courses.lab4.db.StudentSearcher}. Пустой запрос сразу возвращает список групп.
+     * <p>
+     * Поиск запускается, если за delayMillis не пришёл следующий запрос, и отменяет уже идущий
+     * поиск, так что при быстром вводе запросы не копятся в пуле потоков чтения.
+     */
+    private void search(@NonNull String query, long delayMillis) {
+        searchQuery = query.trim();
+        cancelSearch();
+        if (searchQuery.isEmpty()) {
+            if (list.getAdapter() != groupStudentAdapter) {
+                list.setAdapter(groupStudentAdapter);
+            }
+            return;
+        }
+        if (delayMillis == 0) {
+            startSearch();
+        } else {
+            searchHandler.postDelayed(startSearch, delayMillis);
+        }
+    }
+
+    private void startSearch() {
+        CancellationSignal signal = new CancellationSignal();
+        searchSignal = signal;
+        repository.searchStudents(searchQuery, SEARCH_LIMIT, signal, matches -> {
+            // результат отменённого поиска не доставляется, поэтому это последний запрос
+            searchSignal = null;
+            if (matches == null) {
+                return;
+            }
+            searchAdapter.setMatches(matches);
+            if (list.getAdapter() != searchAdapter) {
+                list.setAdapter(searchAdapter);
+            }
+        });
+    }
+
+    private void cancelSearch() {
+        searchHandler.removeCallbacks(startSearch);
+        if (searchSignal != null) {
+            searchSignal.cancel();
+            searchSignal = null;
         }
     }
 
     @Override
     public void onStudentClick(int studentId) {
-        Student student = studentDao.selectStudentById(studentId);
-        startActivityForResult(
-                AddStudentActivity.newIntent(this, student),
-                REQUEST_STUDENT_EDIT
-        );
+        repository.getStudent(studentId, student -> {
+            if (student != null) {
+                startActivityForResult(
+                        AddStudentActivity.newIntent(this, student),
+                        REQUEST_STUDENT_EDIT
+                );
+            }
+        });
     }
 }
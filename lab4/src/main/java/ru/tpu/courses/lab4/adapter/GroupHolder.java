@@ -4,16 +4,43 @@ import android.view.LayoutInflater;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
+import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
 
 import ru.tpu.courses.lab4.R;
+import ru.tpu.courses.lab4.db.Group;
 
 public class GroupHolder extends RecyclerView.ViewHolder {
 
+    /**
+     * Получатель нажатия на заголовок группы.
+     */
+    public interface OnGroupClickListener {
+        void onGroupClick(int position);
+    }
+
     public final TextView group;
 
-    public GroupHolder(ViewGroup parent) {
+    public GroupHolder(ViewGroup parent, OnGroupClickListener listener) {
         super(LayoutInflater.from(parent.getContext()).inflate(R.layout.lab4_item_group, parent, false));
         group = (TextView)itemView.findViewById(R.id.group);
+
+        group.setOnClickListener(view -> {
+            int position = getAdapterPosition();
+            if (position != RecyclerView.NO_POSITION) {
+                listener.onGroupClick(position);
+            }
+        });
+    }
+
+    /**
+     * Название группы, количество студентов в ней и признак свёрнутой группы.
+     */
+    public void setGroup(@NonNull Group group, int studentCount, boolean collapsed) {
+        this.group.setText(itemView.getContext().getString(
+                collapsed ? R.string.lab4_group_header_collapsed : R.string.lab4_group_header,
+                group.groupName,
+                studentCount
+        ));
     }
 }
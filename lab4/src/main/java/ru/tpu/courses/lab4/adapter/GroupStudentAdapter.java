@@ -3,23 +3,57 @@ package ru.tpu.courses.lab4.adapter;
 import android.view.ViewGroup;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.recyclerview.widget.RecyclerView;
 
-import java.util.ArrayList;
-import java.util.List;
-
-import ru.tpu.courses.lab4.db.Group;
-import ru.tpu.courses.lab4.db.Student;
-import ru.tpu.courses.lab4.db.StudentGroupListItem;
-
+import ru.tpu.courses.lab4.db.GroupListUpdate;
+import ru.tpu.courses.lab4.db.StudentRow;
+
+/**
+ * Список групп со студентами. Строки берутся из {@link GroupStudentPager}: позиция строки
+ * переводится в группу и номер студента в ней двоичным поиском по размерам групп, поэтому
+ * плоский список строк не хранится. Нажатие на заголовок сворачивает или разворачивает группу.
+ * <p>
+ * Стабильные id не используются: у строки, страница которой ещё не загружена, нет id студента, а
+ * id вида (группа, номер) сдвигаются при каждой вставке в группу. Об изменениях список узнаёт
+ * только из явных notifyItem* от {@link GroupStudentDiffer} и пейджера.
+ */
 public class GroupStudentAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
 
     public static final int TYPE_GROUP = 0;
     public static final int TYPE_STUDENT = 1;
 
-    private List<StudentGroupListItem> studentGroups = new ArrayList<>();
+    //пока не задан, список пуст
+    private GroupStudentPager pager;
     private onStudentClickListener mOnStudentClickListener;
 
+    private final GroupStudentDiffer differ = new GroupStudentDiffer(new GroupStudentDiffer.Callback() {
+        @Override
+        public void onPagerChanged(@NonNull GroupStudentPager pager) {
+            replacePager(pager);
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            notifyItemRangeInserted(position, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            notifyItemRangeRemoved(position, count);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            notifyItemMoved(fromPosition, toPosition);
+        }
+
+        @Override
+        public void onChanged(int position, int count, @Nullable Object payload) {
+            notifyItemRangeChanged(position, count, payload);
+        }
+    });
+
     public GroupStudentAdapter(onStudentClickListener listener){
         mOnStudentClickListener = listener;
     }
@@ -31,7 +65,7 @@ public class GroupStudentAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
             case TYPE_STUDENT:
                 return new StudentHolder(parent, mOnStudentClickListener);
             case TYPE_GROUP:
-                return new GroupHolder(parent);
+                return new GroupHolder(parent, this::toggleGroup);
         }
         throw new IllegalArgumentException("unknown viewType = " + viewType);
     }
@@ -40,43 +74,90 @@ public class GroupStudentAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
     public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position) {
         switch (getItemViewType(position)) {
             case TYPE_STUDENT:
-                Student student = (Student) studentGroups.get(position);
                 StudentHolder studentHolder = (StudentHolder) holder;
-                studentHolder.setStudent(student);
+                StudentRow student = pager.getStudent(position);
+                if (student != null) {
+                    studentHolder.setStudent(student);
+                } else {
+                    // страница ещё загружается, строка обновится после загрузки
+                    studentHolder.setPlaceholder();
+                }
                 break;
             case TYPE_GROUP:
-                Group group = (Group) studentGroups.get(position);
-                GroupHolder groupHolder = (GroupHolder) holder;
-                groupHolder.group.setText(group.groupName);
+                int group = pager.getGroupIndex(position);
+                ((GroupHolder) holder).setGroup(
+                        pager.getGroup(position),
+                        pager.getStudentCount(group),
+                        pager.isCollapsed(group)
+                );
                 break;
         }
     }
 
     @Override
     public int getItemCount() {
-        return studentGroups.size();
+        return pager != null ? pager.size() : 0;
     }
 
     @Override
     public int getItemViewType(int position) {
-        return studentGroups.get(position).getType();
+        return pager.getType(position);
     }
 
     public interface onStudentClickListener{
         void onStudentClick(int id);
     }
 
-    public void setData(List<Student> students, List<Group> groups){
-        this.studentGroups.clear();
-        for (Group group: groups
-        ) {
-            this.studentGroups.add(group);
-            for (Student student:students
-            ) {
-                if(student.groupId == group.id){
-                    this.studentGroups.add(student);
-                }
-            }
+    /**
+     * Обновляет список после изменений в БД, сообщая только об изменившихся строках, см. {@link GroupStudentDiffer}. Разница считается в фоне.
+     *
+     * @return false, если список ещё не загружен постранично и его нужно задать через
+     * {@link #setPager}.
+     */
+    public boolean submitUpdate(@NonNull GroupListUpdate update) {
+        if (pager == null) {
+            return false;
+        }
+        differ.submit(pager, update);
+        return true;
+    }
+
+    /**
+     * Включает постраничную загрузку списка. Предыдущий пейджер и ещё не применённые обновления
+     * отменяются.
+     */
+    public void setPager(@Nullable GroupStudentPager pager) {
+        differ.cancel();
+        replacePager(pager);
+    }
+
+    private void replacePager(@Nullable GroupStudentPager pager) {
+        if (this.pager != null) {
+            this.pager.release();
+        }
+        this.pager = pager;
+        if (pager != null) {
+            pager.setListener(this::notifyItemRangeChanged);
+        }
+    }
+
+    /**
+     * Сворачивает или разворачивает группу, заголовок которой на позиции position. Строки
+     * студентов удаляются или добавляются без пересборки остального списка.
+     */
+    private void toggleGroup(int position) {
+        if (pager == null || pager.getType(position) != TYPE_GROUP) {
+            return;
+        }
+        int group = pager.getGroupIndex(position);
+        int count = pager.getStudentCount(group);
+        boolean collapse = !pager.isCollapsed(group);
+        pager.setCollapsed(group, collapse);
+        notifyItemChanged(position);
+        if (collapse) {
+            notifyItemRangeRemoved(position + 1, count);
+        } else {
+            notifyItemRangeInserted(position + 1, count);
         }
     }
 }
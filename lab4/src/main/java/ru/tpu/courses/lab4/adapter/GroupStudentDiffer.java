@@ -0,0 +1,267 @@
+package ru.tpu.courses.lab4.adapter;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import ru.tpu.courses.lab4.db.GroupListUpdate;
+import ru.tpu.courses.lab4.db.GroupWithCount;
+
+/**
+ * Считает разницу между выведенным списком групп со студентами и новым на фоновом потоке и
+ * сообщает о ней на UI потоке, по аналогии с {@link androidx.recyclerview.widget.AsyncListDiffer}.
+ * <p>
+ * Студенты загружаются страницами (см. {@link GroupStudentPager}), поэтому сравнивать списки
+ * построчно через {@link androidx.recyclerview.widget.DiffUtil} нельзя: большинство строк ещё не
+ * загружено. Вместо этого сравниваются группы: и старые, и новые группы отсортированы по id,
+ * поэтому достаточно одного слияния за O(количество групп). Строки внутри группы меняются только
+ * там, где ушёл или пришёл изменившийся студент, их номера приходят в {@link GroupListUpdate}.
+ * Поэтому добавление студента в список из 50 тысяч строк стоит столько же, сколько в список
+ * из 50 строк: вставка одной строки и изменение заголовка её группы.
+ * <p>
+ * Если количество студентов группы изменилось как-то иначе (например, при импорте), то строки
+ * группы помечаются изменёнными, а лишние удаляются или недостающие добавляются в её конце. Если
+ * изменения неизвестны, то перенесённые в новый пейджер страницы ещё и перечитываются, см.
+ * {@link GroupStudentPager#refreshPages()}.
+ * <p>
+ * Каждый {@link #submit} получает номер поколения. Если пока считалась разница пришло более
+ * новое обновление, то устаревшая разница выбрасывается. Новое обновление содержит только
+ * изменения после устаревшего, поэтому оно применяется как обновление с неизвестными изменениями:
+ * иначе изменения устаревшего обновления так и не дошли бы до списка. От свёрнутой группы в списке
+ * только заголовок, поэтому разница считается по копии признаков свёрнутости. Если пока она
+ * считалась группу свернули или развернули, то разница считается заново.
+ */
+class GroupStudentDiffer {
+
+    private static final Executor DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    static final int OP_INSERT = 0;
+    static final int OP_REMOVE = 1;
+    static final int OP_CHANGE = 2;
+
+    /**
+     * Получатель изменений. Перед операциями одной разницы вызывается {@link #onPagerChanged}.
+     */
+    interface Callback extends ListUpdateCallback {
+        void onPagerChanged(@NonNull GroupStudentPager pager);
+    }
+
+    /**
+     * Разница: операции над строками и то, какие страницы студентов можно взять из старого
+     * пейджера.
+     */
+    static class Diff {
+        //тройки "тип, позиция, количество", в нулевом элементе длина занятой части массива
+        int[] ops = new int[16];
+        //для каждой новой группы - номер этой группы в старом пейджере или -1
+        int[] oldGroups;
+        //для каждой новой группы - сколько первых студентов не изменилось
+        int[] unchangedCounts;
+    }
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Callback callback;
+
+    private int generation;
+    //поколение последней применённой или отменённой разницы
+    private int settled;
+
+    GroupStudentDiffer(@NonNull Callback callback) {
+        this.callback = callback;
+    }
+
+    /**
+     * Отменяет ещё не применённые разницы, например когда пейджер заменён целиком.
+     */
+    @MainThread
+    void cancel() {
+        generation++;
+        settled = generation;
+    }
+
+    /**
+     * Считает разницу между old и update на фоновом потоке и применяет её на UI потоке, если к
+     * этому времени не пришло более новое обновление.
+     */
+    @MainThread
+    void submit(@NonNull GroupStudentPager old, @NonNull GroupListUpdate update) {
+        if (settled != generation) {
+            // предыдущая разница ещё не применена и будет выброшена вместе с известными изменениями,
+            // а номера студентов в update считаются от состояния после них
+            update = new GroupListUpdate(update.groups, null, -1, null, -1, true);
+        }
+        start(old, update);
+    }
+
+    private void start(GroupStudentPager old, GroupListUpdate update) {
+        int submitted = ++generation;
+        boolean[] collapsed = old.getCollapsed();
+        int collapseVersion = old.getCollapseVersion();
+        DIFF_EXECUTOR.execute(() -> {
+            Diff diff = diff(old, collapsed, update);
+            mainHandler.post(() -> {
+                if (submitted != generation) {
+                    return;
+                }
+                if (collapseVersion != old.getCollapseVersion()) {
+                    start(old, update);
+                    return;
+                }
+                settled = submitted;
+                GroupStudentPager pager = old.update(update.groups, diff.oldGroups, diff.unchangedCounts);
+                callback.onPagerChanged(pager);
+                dispatch(diff.ops);
+                if (update.unknownChanges) {
+                    pager.refreshPages();
+                }
+            });
+        });
+    }
+
+    private void dispatch(int[] ops) {
+        for (int i = 1; i < ops[0]; i += 3) {
+            switch (ops[i]) {
+                case OP_INSERT:
+                    callback.onInserted(ops[i + 1], ops[i + 2]);
+                    break;
+                case OP_REMOVE:
+                    callback.onRemoved(ops[i + 1], ops[i + 2]);
+                    break;
+                case OP_CHANGE:
+                    callback.onChanged(ops[i + 1], ops[i + 2], null);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Слияние старых и новых групп по id. Позиции операций указаны с учётом уже применённых
+     * предыдущих операций. Читает только неизменяемые поля старого пейджера, свёрнутость групп
+     * берётся из collapsed. Новые группы развёрнуты, а старые сохраняют свёрнутость.
+     */
+    @WorkerThread
+    @VisibleForTesting
+    static Diff diff(GroupStudentPager old, boolean[] collapsed, GroupListUpdate update) {
+        List<GroupWithCount> groups = update.groups;
+        Diff diff = new Diff();
+        diff.ops[0] = 1;
+        diff.oldGroups = new int[groups.size()];
+        diff.unchangedCounts = new int[groups.size()];
+        int i = 0;
+        int j = 0;
+        int position = 0;
+        while (i < old.getGroupCount() || j < groups.size()) {
+            int oldId = i < old.getGroupCount() ? old.getGroupId(i) : Integer.MAX_VALUE;
+            int newId = j < groups.size() ? groups.get(j).id : Integer.MAX_VALUE;
+            if (oldId < newId) {
+                add(diff, OP_REMOVE, position, 1 + (collapsed[i] ? 0 : old.getStudentCount(i)));
+                i++;
+            } else if (oldId > newId) {
+                int count = 1 + groups.get(j).studentCount;
+                add(diff, OP_INSERT, position, count);
+                position += count;
+                diff.oldGroups[j] = -1;
+                j++;
+            } else {
+                GroupWithCount group = groups.get(j);
+                int oldCount = old.getStudentCount(i);
+                if (oldCount != group.studentCount ||
+                        !old.getGroupName(i).equals(group.groupName)) {
+                    add(diff, OP_CHANGE, position, 1);
+                }
+                position++;
+                diff.oldGroups[j] = i;
+                if (!collapsed[i]) {
+                    diff.unchangedCounts[j] = diffStudents(diff, update, group, oldCount, position);
+                    position += group.studentCount;
+                }
+                i++;
+                j++;
+            }
+        }
+        return diff;
+    }
+
+    /**
+     * Операции над студентами группы, которая есть и в старом, и в новом списке. Строки группы
+     * начинаются с position.
+     *
+     * @return сколько первых студентов группы не изменилось.
+     */
+    private static int diffStudents(
+            Diff diff,
+            GroupListUpdate update,
+            GroupWithCount group,
+            int oldCount,
+            int position
+    ) {
+        if (update.removed != null && update.inserted != null &&
+                update.removed.groupId == group.id && update.inserted.groupId == group.id &&
+                update.removedIndex == update.insertedIndex &&
+                update.removedIndex < oldCount && oldCount == group.studentCount) {
+            // студент изменился, но остался на своём месте
+            add(diff, OP_CHANGE, position + update.removedIndex, 1);
+            return update.removedIndex;
+        }
+        int unchanged = oldCount;
+        int count = oldCount;
+        if (update.removed != null && update.removed.groupId == group.id &&
+                update.removedIndex < count) {
+            add(diff, OP_REMOVE, position + update.removedIndex, 1);
+            unchanged = Math.min(unchanged, update.removedIndex);
+            count--;
+        }
+        if (update.inserted != null && update.inserted.groupId == group.id &&
+                update.insertedIndex <= count && count < group.studentCount) {
+            add(diff, OP_INSERT, position + update.insertedIndex, 1);
+            unchanged = Math.min(unchanged, update.insertedIndex);
+            count++;
+        }
+        if (count != group.studentCount) {
+            // неизвестно, какие студенты изменились, поэтому меняются все строки группы
+            add(diff, OP_CHANGE, position, Math.min(count, group.studentCount));
+            if (count < group.studentCount) {
+                add(diff, OP_INSERT, position + count, group.studentCount - count);
+            } else {
+                add(diff, OP_REMOVE, position + group.studentCount, count - group.studentCount);
+            }
+            unchanged = 0;
+        }
+        return unchanged;
+    }
+
+    //добавляет операцию, склеивая её с предыдущей операцией того же типа
+    private static void add(Diff diff, int type, int position, int count) {
+        if (count == 0) {
+            return;
+        }
+        int[] ops = diff.ops;
+        int last = ops[0] - 3;
+        if (last > 0 && ops[last] == type) {
+            int lastPosition = ops[last + 1];
+            int lastCount = ops[last + 2];
+            // удаления идут с одной и той же позиции, вставки и изменения - подряд
+            if (type == OP_REMOVE ? position == lastPosition : position == lastPosition + lastCount) {
+                ops[last + 2] += count;
+                return;
+            }
+        }
+        if (ops[0] + 3 > ops.length) {
+            ops = diff.ops = Arrays.copyOf(ops, ops.length * 2);
+        }
+        ops[ops[0]] = type;
+        ops[ops[0] + 1] = position;
+        ops[ops[0] + 2] = count;
+        ops[0] += 3;
+    }
+}
@@ -0,0 +1,464 @@
+package ru.tpu.courses.lab4.adapter;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ru.tpu.courses.lab4.db.Group;
+import ru.tpu.courses.lab4.db.GroupWithCount;
+import ru.tpu.courses.lab4.db.Lab4Repository;
+import ru.tpu.courses.lab4.db.StudentRow;
+import ru.tpu.courses.lab4.db.StudentGroupListItem;
+
+/**
+ * Постраничная загрузка списка групп со студентами для {@link GroupStudentAdapter}.
+ * <p>
+ * Заранее загружаются только группы с количеством студентов в каждой: этого достаточно, чтобы
+ * знать размер списка и позицию каждой строки. Студенты загружаются страницами по
+ * {@link #PAGE_SIZE} внутри группы в порядке (фамилия, id) только для строк, которые выводятся на
+ * экран, и соседних с ними. Пока страница не загружена, на её месте выводятся заглушки.
+ * Одновременно в памяти хранятся страницы не больше чем на {@link #MAX_ROWS} студентов, давно не
+ * выводившиеся страницы выбрасываются. Предел считается в строках, а не в страницах: у маленьких
+ * групп страницы короткие, и на экране их может быть сколько угодно. Все строки видимых страниц,
+ * кроме страниц у краёв экрана, видны на экране, поэтому видимые страницы занимают не больше
+ * строк экрана плюс две страницы и никогда не выбрасываются. Поэтому память и время до первого
+ * кадра зависят от количества групп и размера экрана, а не от количества студентов.
+ * <p>
+ * Группы можно сворачивать (см. {@link #setCollapsed}), тогда от группы остаётся только заголовок,
+ * а страницы её студентов выбрасываются из памяти. Позиция заголовка каждой группы - это сумма
+ * размеров предыдущих групп, поэтому размеры хранятся в дереве Фенвика {@link #sizeTree}: и
+ * поиск группы по позиции, и изменение размера группы при сворачивании стоят O(log количества
+ * групп) без пересчёта позиций всех групп.
+ * <p>
+ * Используется только с UI потока.
+ */
+public class GroupStudentPager {
+
+    static final int PAGE_SIZE = 50;
+    static final int MAX_ROWS = 16 * PAGE_SIZE;
+
+    /**
+     * Сообщает, что строки с fromPosition по fromPosition + count загружены или перечитаны.
+     */
+    interface Listener {
+        void onRangeLoaded(int fromPosition, int count);
+    }
+
+    /**
+     * Откуда загружаются страницы, в приложении - {@link Lab4Repository#loadGroupPage}.
+     */
+    interface PageSource {
+        void loadGroupPage(
+                int groupId,
+                @Nullable StudentRow previous,
+                int offset,
+                int limit,
+                @NonNull Lab4Repository.Callback<List<StudentRow>> callback
+        );
+    }
+
+    private final PageSource source;
+    private final Group[] groups;
+    private final int[] counts;
+    private final boolean[] collapsed;
+    //дерево Фенвика над размерами групп в строках: 1 за заголовок и count за студентов, если
+    //группа развёрнута. Элемент i хранит сумму размеров групп (i - lowbit(i), i]
+    private final int[] sizeTree;
+    private int size;
+    //меняется при каждом сворачивании или разворачивании, см. GroupStudentDiffer
+    private int collapseVersion;
+
+    //загруженные страницы в порядке последнего обращения, ключ - см. pageKey
+    private final Map<Long, List<StudentRow>> pages = new LinkedHashMap<>(16, 0.75f, true);
+    //сколько студентов во всех страницах pages
+    private int pageRows;
+    private final Set<Long> loading = new HashSet<>();
+
+    private Listener listener;
+    private boolean released;
+
+    public GroupStudentPager(@NonNull Lab4Repository repository, @NonNull List<GroupWithCount> groups) {
+        this(repository::loadGroupPage, groups);
+    }
+
+    @VisibleForTesting
+    GroupStudentPager(@NonNull PageSource source, @NonNull List<GroupWithCount> groups) {
+        this(source, groups, new boolean[groups.size()]);
+    }
+
+    private GroupStudentPager(
+            @NonNull PageSource source,
+            @NonNull List<GroupWithCount> groups,
+            @NonNull boolean[] collapsed
+    ) {
+        this.source = source;
+        this.groups = new Group[groups.size()];
+        this.counts = new int[groups.size()];
+        this.collapsed = collapsed;
+        this.sizeTree = new int[groups.size() + 1];
+        for (int i = 0; i < groups.size(); i++) {
+            GroupWithCount group = groups.get(i);
+            this.groups[i] = group.toGroup();
+            counts[i] = group.studentCount;
+        }
+        // построение дерева за O(количества групп): каждый узел добавляет свою сумму родителю
+        for (int node = 1; node <= groups.size(); node++) {
+            int groupSize = groupSize(node - 1);
+            size += groupSize;
+            sizeTree[node] += groupSize;
+            int parent = node + (node & -node);
+            if (parent <= groups.size()) {
+                sizeTree[parent] += sizeTree[node];
+            }
+        }
+    }
+
+    /**
+     * Новый пейджер для новых групп, в который переносятся загруженные страницы этого пейджера,
+     * студенты которых не изменились. Страницы переносятся целиком, поэтому неполная последняя
+     * страница группы переносится, только если группа не изменилась совсем. Свёрнутые группы
+     * остаются свёрнутыми.
+     *
+     * @param oldGroups       для каждой новой группы - её номер в этом пейджере или -1.
+     * @param unchangedCounts для каждой новой группы - сколько первых студентов не изменилось.
+     */
+    @NonNull
+    @MainThread
+    GroupStudentPager update(
+            @NonNull List<GroupWithCount> groups,
+            @NonNull int[] oldGroups,
+            @NonNull int[] unchangedCounts
+    ) {
+        boolean[] newCollapsed = new boolean[groups.size()];
+        for (int group = 0; group < oldGroups.length; group++) {
+            newCollapsed[group] = oldGroups[group] != -1 && collapsed[oldGroups[group]];
+        }
+        GroupStudentPager pager = new GroupStudentPager(source, groups, newCollapsed);
+        pager.copyPages(this, oldGroups, unchangedCounts);
+        return pager;
+    }
+
+    private void copyPages(GroupStudentPager old, int[] oldGroups, int[] unchangedCounts) {
+        int[] newGroups = new int[old.groups.length];
+        Arrays.fill(newGroups, -1);
+        for (int group = 0; group < oldGroups.length; group++) {
+            if (oldGroups[group] != -1) {
+                newGroups[oldGroups[group]] = group;
+            }
+        }
+        // страницы перебираются от давно выводившихся к недавним, чтобы сохранить их порядок
+        for (Map.Entry<Long, List<StudentRow>> entry : old.pages.entrySet()) {
+            int oldGroup = (int) (entry.getKey() >>> 32);
+            int page = (int) (long) entry.getKey();
+            int group = newGroups[oldGroup];
+            if (group == -1) {
+                continue;
+            }
+            int unchanged = unchangedCounts[group];
+            boolean sameGroup = unchanged == old.counts[oldGroup] && unchanged == counts[group];
+            if (sameGroup || (page + 1) * PAGE_SIZE <= unchanged) {
+                putPage(pageKey(group, page), entry.getValue());
+            }
+        }
+    }
+
+    void setListener(@Nullable Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Отменяет доставку ещё не загруженных страниц, например когда пейджер заменён новым.
+     */
+    @MainThread
+    public void release() {
+        released = true;
+        listener = null;
+    }
+
+    // группы и количества студентов не меняются после создания пейджера, поэтому методы ниже
+    // можно вызывать с любого потока, см. GroupStudentDiffer
+
+    int getGroupCount() {
+        return groups.length;
+    }
+
+    int getGroupId(int group) {
+        return groups[group].id;
+    }
+
+    @NonNull
+    String getGroupName(int group) {
+        return groups[group].groupName;
+    }
+
+    int getStudentCount(int group) {
+        return counts[group];
+    }
+
+    boolean isCollapsed(int group) {
+        return collapsed[group];
+    }
+
+    /**
+     * Копия признаков свёрнутости групп для {@link GroupStudentDiffer}, вместе с
+     * {@link #getCollapseVersion()}.
+     */
+    @NonNull
+    @MainThread
+    boolean[] getCollapsed() {
+        return collapsed.clone();
+    }
+
+    @MainThread
+    int getCollapseVersion() {
+        return collapseVersion;
+    }
+
+    /**
+     * Сворачивает или разворачивает группу за O(log количества групп). При сворачивании страницы
+     * студентов группы выбрасываются из памяти. Об изменении строк сообщает вызывающий.
+     */
+    @MainThread
+    void setCollapsed(int group, boolean collapse) {
+        if (collapsed[group] == collapse) {
+            return;
+        }
+        collapsed[group] = collapse;
+        collapseVersion++;
+        addSize(group, collapse ? -counts[group] : counts[group]);
+        if (collapse) {
+            Iterator<Map.Entry<Long, List<StudentRow>>> entries = pages.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<Long, List<StudentRow>> entry = entries.next();
+                if ((int) (entry.getKey() >>> 32) == group) {
+                    pageRows -= entry.getValue().size();
+                    entries.remove();
+                }
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Номер группы, в которую входит позиция: заголовок или один из студентов.
+     */
+    int getGroupIndex(int position) {
+        return groupIndex(position);
+    }
+
+    /**
+     * Позиция заголовка группы.
+     */
+    int getGroupStart(int group) {
+        return groupStart(group);
+    }
+
+    int getType(int position) {
+        return groupStart(groupIndex(position)) == position
+                ? StudentGroupListItem.TYPE_GROUP
+                : StudentGroupListItem.TYPE_STUDENT;
+    }
+
+    @NonNull
+    Group getGroup(int position) {
+        return groups[groupIndex(position)];
+    }
+
+    /**
+     * Студент на позиции или null, если его страница ещё не загружена. В этом случае страница
+     * запрашивается. Также заранее запрашивается следующая страница.
+     */
+    @Nullable
+    StudentRow getStudent(int position) {
+        int group = groupIndex(position);
+        int index = position - groupStart(group) - 1;
+        int page = index / PAGE_SIZE;
+        List<StudentRow> students = pages.get(pageKey(group, page));
+        if (students == null) {
+            load(group, page);
+            return null;
+        }
+        if (index % PAGE_SIZE >= PAGE_SIZE / 2) {
+            prefetch(group, page + 1);
+        } else if (page > 0) {
+            prefetch(group, page - 1);
+        }
+        int inPage = index - page * PAGE_SIZE;
+        return inPage < students.size() ? students.get(inPage) : null;
+    }
+
+    /**
+     * Студент на позиции, если его страница загружена. В отличие от {@link #getStudent} ничего не
+     * запрашивает и не меняет порядок вытеснения страниц.
+     */
+    @VisibleForTesting
+    @Nullable
+    StudentRow peekStudent(int position) {
+        int group = groupIndex(position);
+        int index = position - groupStart(group) - 1;
+        long key = pageKey(group, index / PAGE_SIZE);
+        //get в LinkedHashMap с accessOrder переставил бы страницу в конец
+        for (Map.Entry<Long, List<StudentRow>> page : pages.entrySet()) {
+            if (page.getKey() == key) {
+                int inPage = index % PAGE_SIZE;
+                return inPage < page.getValue().size() ? page.getValue().get(inPage) : null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Перечитывает загруженные страницы, например после изменений в БД, о которых неизвестно,
+     * каких студентов они затронули. Перечитываются только страницы в памяти, то есть не больше
+     * {@link #MAX_ROWS} студентов, а об изменении сообщается только для отличающихся строк.
+     */
+    @MainThread
+    void refreshPages() {
+        for (Long key : pages.keySet()) {
+            int group = (int) (key >>> 32);
+            int page = (int) (long) key;
+            source.loadGroupPage(groups[group].id, null, page * PAGE_SIZE, PAGE_SIZE, students -> {
+                List<StudentRow> old = pages.get(key);
+                // страница могла быть выброшена, например при сворачивании группы. Если запрос не
+                // удался, остаётся прежняя страница
+                if (released || old == null || students == null) {
+                    return;
+                }
+                putPage(key, students);
+                int first = 0;
+                while (first < old.size() && first < students.size() &&
+                        sameStudent(old.get(first), students.get(first))) {
+                    first++;
+                }
+                if (first == old.size() && first == students.size()) {
+                    return;
+                }
+                // строки с первой отличающейся до конца страницы
+                int count = Math.min(PAGE_SIZE, counts[group] - page * PAGE_SIZE) - first;
+                if (listener != null && count > 0) {
+                    listener.onRangeLoaded(groupStart(group) + 1 + page * PAGE_SIZE + first, count);
+                }
+            });
+        }
+    }
+
+    private void prefetch(int group, int page) {
+        if (page * PAGE_SIZE >= counts[group]) {
+            //следующая страница - первая страница следующей группы
+            group++;
+            page = 0;
+            if (group == groups.length || counts[group] == 0 || collapsed[group]) {
+                return;
+            }
+        }
+        if (!pages.containsKey(pageKey(group, page))) {
+            load(group, page);
+        }
+    }
+
+    private void load(int group, int page) {
+        long key = pageKey(group, page);
+        if (!loading.add(key)) {
+            return;
+        }
+        //последний студент предыдущей страницы, если она загружена, позволяет искать по ключу
+        List<StudentRow> previousPage = page > 0 ? pages.get(pageKey(group, page - 1)) : null;
+        StudentRow previous = previousPage != null && previousPage.size() == PAGE_SIZE
+                ? previousPage.get(PAGE_SIZE - 1)
+                : null;
+        source.loadGroupPage(groups[group].id, previous, page * PAGE_SIZE, PAGE_SIZE, students -> {
+            if (released) {
+                return;
+            }
+            loading.remove(key);
+            if (collapsed[group]) {
+                // пока страница загружалась, группу свернули
+                return;
+            }
+            if (students == null) {
+                // запрос не удался, страница запросится снова при следующем выводе её строк
+                return;
+            }
+            putPage(key, students);
+            int from = page * PAGE_SIZE;
+            int count = Math.min(PAGE_SIZE, counts[group] - from);
+            if (listener != null && count > 0) {
+                listener.onRangeLoaded(groupStart(group) + 1 + from, count);
+            }
+        });
+    }
+
+    /**
+     * Кладёт страницу в конец порядка вытеснения и выбрасывает самые давние страницы, пока
+     * студентов больше {@link #MAX_ROWS}. Только что положенная страница не выбрасывается.
+     */
+    private void putPage(long key, List<StudentRow> students) {
+        List<StudentRow> old = pages.put(key, students);
+        pageRows += students.size() - (old != null ? old.size() : 0);
+        Iterator<List<StudentRow>> eldest = pages.values().iterator();
+        while (pageRows > MAX_ROWS && pages.size() > 1) {
+            pageRows -= eldest.next().size();
+            eldest.remove();
+        }
+    }
+
+    private int groupSize(int group) {
+        return collapsed[group] ? 1 : 1 + counts[group];
+    }
+
+    private void addSize(int group, int delta) {
+        size += delta;
+        for (int node = group + 1; node < sizeTree.length; node += node & -node) {
+            sizeTree[node] += delta;
+        }
+    }
+
+    //сумма размеров групп перед group
+    private int groupStart(int group) {
+        int start = 0;
+        for (int node = group; node > 0; node -= node & -node) {
+            start += sizeTree[node];
+        }
+        return start;
+    }
+
+    /**
+     * Двоичный поиск по дереву: спуск от старшего бита набирает наибольшее количество первых групп,
+     * сумма размеров которых не больше position. Размер каждой группы не меньше 1, поэтому это и
+     * есть номер группы с этой позицией.
+     */
+    private int groupIndex(int position) {
+        int group = 0;
+        int remaining = position;
+        for (int step = Integer.highestOneBit(groups.length); step > 0; step >>= 1) {
+            int node = group + step;
+            if (node <= groups.length && sizeTree[node] <= remaining) {
+                group = node;
+                remaining -= sizeTree[node];
+            }
+        }
+        return group;
+    }
+
+    private static boolean sameStudent(StudentRow a, StudentRow b) {
+        return a.id == b.id &&
+                a.groupId == b.groupId &&
+                a.displayName.equals(b.displayName);
+    }
+
+    private static long pageKey(int group, int page) {
+        return ((long) group << 32) | page;
+    }
+}
@@ -0,0 +1,33 @@
+package ru.tpu.courses.lab4.adapter;
+
+import android.graphics.Color;
+import android.text.style.ForegroundColorSpan;
+
+import java.util.Arrays;
+
+/**
+ * Пул спанов для выделения совпадений цветом.
+ * <p>
+ * Класс одинаково скопирован в lab3 и lab4: модули лабораторных не зависят друг от друга, а
+ * заводить общий модуль ради одного класса не стоит. Копии отличаются только пакетом, это
+ * проверяет HighlightSpanPoolCopyTest в lab4, поэтому менять нужно обе сразу.
+ * <p>
+ * Спан не хранит в себе позицию, поэтому один и тот же объект можно повесить на тексты
+ * разных строк списка. В пределах одного текста каждый интервал требует свой объект, поэтому
+ * i-й интервал строки всегда получает i-й спан из пула. Используется только с UI потока.
+ */
+class HighlightSpanPool {
+
+    private ForegroundColorSpan[] spans = new ForegroundColorSpan[4];
+
+    ForegroundColorSpan get(int index) {
+        if (index >= spans.length) {
+            spans = Arrays.copyOf(spans, Math.max(spans.length * 2, index + 1));
+        }
+        ForegroundColorSpan span = spans[index];
+        if (span == null) {
+            spans[index] = span = new ForegroundColorSpan(Color.RED);
+        }
+        return span;
+    }
+}
@@ -1,19 +1,26 @@
 package ru.tpu.courses.lab4.adapter;
 
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
 import android.view.LayoutInflater;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
 
 import ru.tpu.courses.lab4.R;
-import ru.tpu.courses.lab4.db.Student;
+import ru.tpu.courses.lab4.db.StudentRow;
+import ru.tpu.courses.lab4.db.StudentMatch;
 
 public class StudentHolder extends RecyclerView.ViewHolder {
 
     public final TextView student;
     private int studentId;
+
+    //переиспользуется между setMatch, TextView всё равно копирует переданный ему текст
+    private final SpannableStringBuilder highlightedName = new SpannableStringBuilder();
     GroupStudentAdapter.onStudentClickListener onStudentClickListener;
 
     public StudentHolder(ViewGroup parent, GroupStudentAdapter.onStudentClickListener listener) {
@@ -23,15 +30,44 @@ public class StudentHolder extends RecyclerView.ViewHolder {
         this.onStudentClickListener = listener;
 
         student.setOnClickListener(view -> {
-            onStudentClickListener.onStudentClick(studentId);
+            if (studentId != -1) {
+                onStudentClickListener.onStudentClick(studentId);
+            }
         });
     }
 
-    public void setStudent(Student student){
-        this.student.setText(
-                student.lastName + " " + student.firstName + " " + student.secondName
-        );
+    /**
+     * ФИО уже собрано запросом, см. {@link StudentRow#displayName}, поэтому здесь ничего не
+     * склеивается.
+     */
+    public void setStudent(@NonNull StudentRow student) {
+        this.student.setText(student.displayName);
 
         studentId = student.id;
     }
+
+    /**
+     * Найденный студент с выделенными совпадениями, см. {@link StudentMatch#ranges}.
+     */
+    void setMatch(@NonNull StudentMatch match, @NonNull HighlightSpanPool spans) {
+        int[] ranges = match.ranges;
+        highlightedName.clearSpans();
+        highlightedName.clear();
+        highlightedName.append(match.getShownName());
+        for (int i = 0; i < ranges.length; i += 2) {
+            highlightedName.setSpan(spans.get(i / 2), ranges[i], ranges[i + 1],
+                    Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+        student.setText(highlightedName);
+
+        studentId = match.student.id;
+    }
+
+    /**
+     * Пустая строка на месте ещё не загруженного студента, нажатие на неё ничего не открывает.
+     */
+    public void setPlaceholder() {
+        student.setText(null);
+        studentId = -1;
+    }
 }
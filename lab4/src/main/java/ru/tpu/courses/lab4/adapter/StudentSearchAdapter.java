@@ -0,0 +1,48 @@
+package ru.tpu.courses.lab4.adapter;
+
+import android.view.ViewGroup;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ru.tpu.courses.lab4.db.StudentMatch;
+
+/**
+ * Результаты поиска студентов в порядке релевантности с выделенными совпадениями, см.
+ * {@link ru.tpu.courses.lab4.db.StudentSearcher}.
+ */
+public class StudentSearchAdapter extends RecyclerView.Adapter<StudentHolder> {
+
+    private final GroupStudentAdapter.onStudentClickListener listener;
+    private final HighlightSpanPool highlightSpans = new HighlightSpanPool();
+
+    private List<StudentMatch> matches = new ArrayList<>();
+
+    public StudentSearchAdapter(@NonNull GroupStudentAdapter.onStudentClickListener listener) {
+        this.listener = listener;
+    }
+
+    @NonNull
+    @Override
+    public StudentHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        return new StudentHolder(parent, listener);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull StudentHolder holder, int position) {
+        holder.setMatch(matches.get(position), highlightSpans);
+    }
+
+    @Override
+    public int getItemCount() {
+        return matches.size();
+    }
+
+    public void setMatches(@NonNull List<StudentMatch> matches) {
+        this.matches = matches;
+        notifyDataSetChanged();
+    }
+}
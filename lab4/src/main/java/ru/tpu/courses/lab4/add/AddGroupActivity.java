@@ -14,11 +14,8 @@ import androidx.appcompat.app.AppCompatActivity;
 
 import ru.tpu.courses.lab4.Const;
 import ru.tpu.courses.lab4.R;
-import ru.tpu.courses.lab4.db.Lab4Database;
-import ru.tpu.courses.lab4.db.Student;
-import ru.tpu.courses.lab4.db.StudentDao;
+import ru.tpu.courses.lab4.db.Lab4Repository;
 import ru.tpu.courses.lab4.db.Group;
-import ru.tpu.courses.lab4.db.GroupDao;
 
 public class AddGroupActivity extends AppCompatActivity {
 
@@ -32,7 +29,7 @@ public class AddGroupActivity extends AppCompatActivity {
         return intent.getParcelableExtra(EXTRA_GROUP);
     }
 
-    private GroupDao groupDao;
+    private Lab4Repository repository;
 
     private EditText groupName;
 
@@ -42,12 +39,18 @@ public class AddGroupActivity extends AppCompatActivity {
         setContentView(R.layout.lab4_activity_add_group);
 
 
-        groupDao = Lab4Database.getInstance(this).groupDao();
+        repository = new Lab4Repository(this);
         getSupportActionBar().setDisplayHomeAsUpEnabled(true);
 
         groupName = findViewById(R.id.group_name);
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        repository.cancel();
+    }
+
 
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
@@ -79,23 +82,30 @@ public class AddGroupActivity extends AppCompatActivity {
                 return true;
             }
 
-            // Проверяем, что такой группы в списке нет
-            if (groupDao.count(group.groupName) > 0) {
-                Toast.makeText(this, R.string.lab4_error_already_exists, Toast.LENGTH_LONG).show();
-                return true;
-            }
-
-            // Сохраняем Intent с инфорамцией от этой Activity, который будет передан в onActivityResult
-            // вызвавшей его Activity.
-            Intent data = new Intent();
-            // Сохраяем объект группы. Для того, чтобы сохранить объект класса, он должен реализовывать
-            // интерфейс Parcelable или Serializable, т.к. Intent передаётся в виде бинарных данных
-            data.putExtra(EXTRA_GROUP, group);
-            // Указываем resultCode и сам Intent, которые будут переданы вызвавшей нас Activity в методе
-            // onActivityResult
-            setResult(RESULT_OK, data);
-            // Закрываем нашу Activity
-            finish();
+            // Сохраняем группу. Если такая группа уже есть, то уникальный индекс не даст её добавить.
+            // Запрос идёт в фоне, результат придёт на UI поток
+            repository.insertGroup(group, saved -> {
+                if (saved == null) {
+                    Toast.makeText(this, R.string.lab4_error_save_failed, Toast.LENGTH_LONG).show();
+                    return;
+                }
+                if (!saved) {
+                    Toast.makeText(this, R.string.lab4_error_already_exists, Toast.LENGTH_LONG).show();
+                    return;
+                }
+
+                // Сохраняем Intent с инфорамцией от этой Activity, который будет передан в onActivityResult
+                // вызвавшей его Activity.
+                Intent data = new Intent();
+                // Сохраяем объект группы. Для того, чтобы сохранить объект класса, он должен реализовывать
+                // интерфейс Parcelable или Serializable, т.к. Intent передаётся в виде бинарных данных
+                data.putExtra(EXTRA_GROUP, group);
+                // Указываем resultCode и сам Intent, которые будут переданы вызвавшей нас Activity в методе
+                // onActivityResult
+                setResult(RESULT_OK, data);
+                // Закрываем нашу Activity
+                finish();
+            });
             return true;
         }
         return super.onOptionsItemSelected(item);
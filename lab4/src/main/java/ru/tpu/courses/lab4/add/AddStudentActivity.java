@@ -24,11 +24,9 @@ import java.io.IOException;
 
 import ru.tpu.courses.lab4.Const;
 import ru.tpu.courses.lab4.R;
-import ru.tpu.courses.lab4.db.Lab4Database;
+import ru.tpu.courses.lab4.db.Lab4Repository;
 import ru.tpu.courses.lab4.db.Student;
-import ru.tpu.courses.lab4.db.StudentDao;
 import ru.tpu.courses.lab4.db.Group;
-import ru.tpu.courses.lab4.db.GroupDao;
 
 public class AddStudentActivity extends AppCompatActivity {
 
@@ -36,7 +34,6 @@ public class AddStudentActivity extends AppCompatActivity {
     private static final String EXTRA_GROUP_NAME = "group_name";
 
     private static final int REQUEST_CAMERA = 0;
-    private static int oldStudentId;
 
     public static Intent newIntent(@NonNull Context context) {
         return new Intent(context, AddStudentActivity.class);
@@ -46,7 +43,6 @@ public class AddStudentActivity extends AppCompatActivity {
         Intent ourIntent = newIntent(context);
 
         ourIntent.putExtra(EXTRA_STUDENT, student);
-        oldStudentId = student.id;
         return ourIntent;
     }
 
@@ -54,8 +50,7 @@ public class AddStudentActivity extends AppCompatActivity {
         return intent.getParcelableExtra(EXTRA_STUDENT);
     }
 
-    private StudentDao studentDao;
-    private GroupDao groupDao;
+    private Lab4Repository repository;
 
     private TempStudentPref studentPref;
 
@@ -63,6 +58,7 @@ public class AddStudentActivity extends AppCompatActivity {
     private EditText secondName;
     private EditText lastName;
     private Spinner groupName;
+    private ArrayAdapter<Group> groupsAdapter;
 
     private boolean skipSaveToPrefs;
 
@@ -72,8 +68,7 @@ public class AddStudentActivity extends AppCompatActivity {
         setContentView(R.layout.lab4_activity_add_student);
 
         studentPref = new TempStudentPref(this);
-        studentDao = Lab4Database.getInstance(this).studentDao();
-        groupDao = Lab4Database.getInstance(this).groupDao();
+        repository = new Lab4Repository(this);
 
         getSupportActionBar().setDisplayHomeAsUpEnabled(true);
 
@@ -86,13 +81,17 @@ public class AddStudentActivity extends AppCompatActivity {
         secondName.setText(studentPref.getSecondName());
         lastName.setText(studentPref.getLastName());
 
-        ArrayAdapter<Group> adapter = new ArrayAdapter<Group>(getApplicationContext(), R.layout.lab4_item_group, R.id.group);
-        adapter.addAll(groupDao.getAll());
-        groupName.setAdapter(adapter);
+        groupsAdapter = new ArrayAdapter<Group>(getApplicationContext(), R.layout.lab4_item_group, R.id.group);
+        groupName.setAdapter(groupsAdapter);
 
-        Group selectedGroup = groupDao.selectGroupById(studentPref.getGroupId());
-        if(selectedGroup != null)
-            selectSpinnerItemByValue(groupName, selectedGroup.groupName);
+        // группы загружаются в фоне, после загрузки выбираем сохранённую в префах группу
+        repository.getGroups(groups -> {
+            if (groups == null) {
+                return;
+            }
+            groupsAdapter.addAll(groups);
+            selectSpinnerItemById(groupName, studentPref.getGroupId());
+        });
 
         Bundle arguments = getIntent().getExtras();
         if(arguments!=null){
@@ -103,28 +102,32 @@ public class AddStudentActivity extends AppCompatActivity {
         }
     }
 
-    private static void selectSpinnerItemByValue(Spinner spnr, String value) {
+    private static void selectSpinnerItemById(Spinner spnr, int groupId) {
         SpinnerAdapter adapter = (SpinnerAdapter) spnr.getAdapter();
         for (int position = 0; position < adapter.getCount(); position++) {
-            if(adapter.getItem(position).toString() == value) {
+            if(((Group) adapter.getItem(position)).id == groupId) {
                 spnr.setSelection(position);
                 return;
             }
         }
     }
 
-    public static int getOldStudentId(){
-        return oldStudentId;
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        repository.cancel();
     }
 
     @Override
     protected void onPause() {
         super.onPause();
         if (!skipSaveToPrefs) {
-            Object selectedGroupName = groupName.getSelectedItem();
-            int selectedGroupId = -1;
-            if(selectedGroupName != null) {
-                selectedGroupId = groupDao.selectByName(selectedGroupName.toString()).id;
+            // в спиннере лежат сами группы, поэтому id берётся без запроса к БД. Пока группы не
+            // загрузились, сохраняем ранее выбранную группу
+            int selectedGroupId = studentPref.getGroupId();
+            if (groupsAdapter.getCount() > 0) {
+                Group selectedGroup = (Group) groupName.getSelectedItem();
+                selectedGroupId = selectedGroup != null ? selectedGroup.id : -1;
             }
             studentPref.set(
                     firstName.getText().toString(),
@@ -158,13 +161,13 @@ public class AddStudentActivity extends AppCompatActivity {
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         if (requestCode == REQUEST_CAMERA && resultCode == RESULT_OK) {
-            try {
-                String groupName = data.getStringExtra(EXTRA_GROUP_NAME);
-                Group group = groupDao.selectByName(groupName);
-
-            } catch (Exception e) {
-                Toast.makeText(this, "Выбранная группа не найдена в базе", Toast.LENGTH_SHORT).show();
-                e.printStackTrace();
+            String groupName = data.getStringExtra(EXTRA_GROUP_NAME);
+            if (groupName != null) {
+                repository.getGroupByName(groupName, group -> {
+                    if (group == null) {
+                        Toast.makeText(this, "Выбранная группа не найдена в базе", Toast.LENGTH_SHORT).show();
+                    }
+                });
             }
             return;
         }
@@ -186,31 +189,42 @@ public class AddStudentActivity extends AppCompatActivity {
             return;
         }
 
-        Object selectedGroupName = groupName.getSelectedItem();
-        if(selectedGroupName != null) {
-            Group selectedGroup = groupDao.selectByName(selectedGroupName.toString());
-            if(selectedGroup != null)
-                student.groupId = selectedGroup.id;
-        }
-
-        if (studentDao.count(student.firstName, student.secondName, student.lastName, student.groupId) > 0) {
-            Toast.makeText(
-                    this,
-                    R.string.lab4_error_already_exists,
-                    Toast.LENGTH_LONG
-            ).show();
-            return;
+        Group selectedGroup = (Group) groupName.getSelectedItem();
+        if(selectedGroup != null) {
+            student.groupId = selectedGroup.id;
         }
 
+        // Студент сохраняется здесь же: если такой студент в группе уже есть, то уникальный индекс
+        // не даст его добавить, и экран останется открытым
+        Student oldStudent = getIntent().getParcelableExtra(EXTRA_STUDENT);
+        Lab4Repository.Callback<Boolean> onSaved = saved -> {
+            if (saved == null) {
+                Toast.makeText(this, R.string.lab4_error_save_failed, Toast.LENGTH_LONG).show();
+                return;
+            }
+            if (!saved) {
+                Toast.makeText(
+                        this,
+                        R.string.lab4_error_already_exists,
+                        Toast.LENGTH_LONG
+                ).show();
+                return;
+            }
 
+            skipSaveToPrefs = true;
 
-        skipSaveToPrefs = true;
-
-        studentPref.clear();
+            studentPref.clear();
 
-        Intent data = new Intent();
-        data.putExtra(EXTRA_STUDENT, student);
-        setResult(RESULT_OK, data);
-        finish();
+            Intent data = new Intent();
+            data.putExtra(EXTRA_STUDENT, student);
+            setResult(RESULT_OK, data);
+            finish();
+        };
+        if (oldStudent != null) {
+            student.id = oldStudent.id;
+            repository.updateStudent(student, onSaved);
+        } else {
+            repository.insertStudent(student, onSaved);
+        }
     }
 }
@@ -7,9 +7,10 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.room.ColumnInfo;
 import androidx.room.Entity;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
-@Entity
+@Entity(indices = {@Index(value = "group_name", unique = true)})
 public class Group extends StudentGroupListItem implements Parcelable {
 
     @PrimaryKey(autoGenerate = true)
@@ -0,0 +1,121 @@
+package ru.tpu.courses.lab4.db;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+import androidx.room.InvalidationTracker;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Все группы в памяти, общие для всех экранов, см. {@link Lab4Database#getGroupCache()}.
+ * <p>
+ * Групп немного и меняются они редко, а нужны почти каждому экрану: список групп для спиннера,
+ * поиск группы по названию. Поэтому группы читаются из БД один раз при первом обращении, а
+ * дальше поиск по названию или id - это поиск в HashMap без запросов к БД. При любой записи в
+ * таблицу group Room сообщает об этом через {@link InvalidationTracker}, и кэш сбрасывается,
+ * а при следующем обращении группы читаются заново.
+ * <p>
+ * Возвращаемые группы общие, их нельзя изменять.
+ */
+public class GroupCache {
+
+    /**
+     * Неизменяемый снимок групп.
+     */
+    private static class Snapshot {
+        final List<Group> groups;
+        final Map<String, Group> byName;
+        final Map<Integer, Group> byId;
+
+        Snapshot(List<Group> groups) {
+            this.groups = Collections.unmodifiableList(groups);
+            byName = new HashMap<>(groups.size() * 2);
+            byId = new HashMap<>(groups.size() * 2);
+            for (Group group : groups) {
+                byName.put(group.groupName, group);
+                byId.put(group.id, group);
+            }
+        }
+    }
+
+    private final Lab4Database db;
+
+    private volatile Snapshot snapshot;
+    //номер сброса кэша, под this. Снимок, прочитанный до сброса, не сохраняется
+    private int version;
+
+    /**
+     * Кэш с уже загруженными группами без БД, для тестов. Сбрасывать такой кэш нельзя.
+     */
+    @VisibleForTesting
+    GroupCache(@NonNull List<Group> groups) {
+        db = null;
+        snapshot = new Snapshot(groups);
+    }
+
+    GroupCache(@NonNull Lab4Database db) {
+        this.db = db;
+        db.getInvalidationTracker().addObserver(new InvalidationTracker.Observer("group") {
+            @Override
+            public void onInvalidated(@NonNull Set<String> tables) {
+                invalidate();
+            }
+        });
+    }
+
+    /**
+     * Все группы в порядке их хранения в БД.
+     */
+    @NonNull
+    @WorkerThread
+    public List<Group> getAll() {
+        return get().groups;
+    }
+
+    @Nullable
+    @WorkerThread
+    public Group getByName(@NonNull String groupName) {
+        return get().byName.get(groupName);
+    }
+
+    @Nullable
+    @WorkerThread
+    public Group getById(int groupId) {
+        return get().byId.get(groupId);
+    }
+
+    /**
+     * Сбрасывает кэш. Room сообщает о записи уже после её завершения и асинхронно, поэтому после
+     * своей записи в group кэш сбрасывается сразу, чтобы следующее чтение увидело изменения.
+     */
+    void invalidate() {
+        synchronized (this) {
+            version++;
+            snapshot = null;
+        }
+    }
+
+    private Snapshot get() {
+        Snapshot current = snapshot;
+        if (current != null) {
+            return current;
+        }
+        int loadedVersion;
+        synchronized (this) {
+            loadedVersion = version;
+        }
+        current = new Snapshot(db.groupDao().getAll());
+        synchronized (this) {
+            if (version == loadedVersion) {
+                snapshot = current;
+            }
+        }
+        return current;
+    }
+}
@@ -0,0 +1,300 @@
+package ru.tpu.courses.lab4.db;
+
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+import androidx.room.InvalidationTracker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Количество студентов в каждой группе в памяти, см. {@link Lab4Database#getGroupCountCache()}.
+ * <p>
+ * Количества нужны заголовкам групп и каждому обновлению списка после записи в БД. Подсчёт по
+ * индексу на group_id всё равно проходит по всем студентам (~70 мс на 1 млн студентов), поэтому
+ * количества считаются запросом {@link GroupDao#getAllWithCounts()} и хранятся, пока таблица
+ * student не изменится. {@link Lab4Repository} меняет количества на месте после каждой своей
+ * записи, без подсчёта. Сами группы берутся из {@link GroupCache}, новая группа получает 0
+ * студентов без запроса.
+ * <p>
+ * Записи в student не через репозиторий тоже нужно учесть. Триггеры на student считают записи,
+ * меняющие количества, в таблице student_write_count (см. {@link Lab4Database#MIGRATION_6_7}),
+ * а кэш помнит, сколько записей учтено в количествах. Репозиторий читает счётчик в транзакции
+ * записи до и после неё. Когда {@link InvalidationTracker} сообщает о записи в student, счётчик
+ * сравнивается с учтённым: если все записи учтены, то кэш остаётся, иначе сбрасывается. Просто
+ * пропускать сообщения о своих записях нельзя: Room сообщает асинхронно и может объединить в
+ * одно сообщение свою и чужую запись.
+ * <p>
+ * Каждая запись студента идёт между {@link #beginWrite()} и {@link #endWrite}, а endWrite
+ * возвращает номер изменения кэша. Вместе с количествами отдаётся номер последнего учтённого в
+ * них изменения, поэтому читать количества можно без блокировки репозитория: по номеру видно,
+ * какие записи в них уже вошли. Если количества читались из БД во время записи, то этого не
+ * узнать, и номер неизвестен. Массовые изменения (импорт) идут между {@link #beginBulkChange()} и
+ * {@link #endBulkChange()}, пока они идут, количества каждый раз читаются из БД.
+ */
+public class GroupCountCache {
+
+    /**
+     * Группы с количествами и номер изменения, которому они соответствуют.
+     */
+    public static class Counts {
+        //все группы в порядке id
+        @NonNull
+        public final List<GroupWithCount> groups;
+        //номер последнего изменения, учтённого в groups, или -1, если неизвестно
+        public final int version;
+
+        Counts(@NonNull List<GroupWithCount> groups, int version) {
+            this.groups = groups;
+            this.version = version;
+        }
+    }
+
+    /**
+     * Откуда кэш берёт группы и количества. В приложении - БД, в тестах - таблицы в памяти.
+     */
+    interface Source {
+
+        @NonNull
+        List<Group> getGroups();
+
+        /**
+         * Количество студентов в каждой группе, см. {@link GroupDao#getAllWithCounts()}.
+         */
+        @NonNull
+        List<GroupWithCount> loadCounts();
+
+        /**
+         * Сколько всего было записей в student, меняющих количества.
+         */
+        long readStudentWrites();
+    }
+
+    private final Source source;
+
+    //количество студентов по id группы, под this. null - ещё не загружено или сброшено
+    private Map<Integer, Integer> counts;
+    //значение счётчика записей в student, учтённое в counts, под this
+    private long countedWrites;
+    //наибольшее значение счётчика, о котором сообщил InvalidationTracker во время записи, под this
+    private long reportedWrites = -1;
+    //номер изменения кэша, под this. Количества, прочитанные до изменения, не сохраняются
+    private int version;
+    //количество идущих записей студентов, под this
+    private int writes;
+    //количество идущих массовых изменений, под this
+    private int bulkChanges;
+
+    GroupCountCache(@NonNull Lab4Database db) {
+        this(new DatabaseSource(db));
+        db.getInvalidationTracker().addObserver(new InvalidationTracker.Observer("student") {
+            @Override
+            public void onInvalidated(@NonNull Set<String> tables) {
+                onStudentsChanged();
+            }
+        });
+    }
+
+    @VisibleForTesting
+    GroupCountCache(@NonNull Source source) {
+        this.source = source;
+    }
+
+    /**
+     * Все группы в порядке id с количеством студентов, как {@link GroupDao#getAllWithCounts()}.
+     */
+    @NonNull
+    @WorkerThread
+    public Counts getAllWithCounts() {
+        List<Group> groups = new ArrayList<>(source.getGroups());
+        Collections.sort(groups, (a, b) -> Integer.compare(a.id, b.id));
+        Map<Integer, Integer> counts = new HashMap<>();
+        int countsVersion = getCounts(counts);
+        List<GroupWithCount> result = new ArrayList<>(groups.size());
+        for (Group group : groups) {
+            Integer count = counts.get(group.id);
+            GroupWithCount groupWithCount = new GroupWithCount();
+            groupWithCount.id = group.id;
+            groupWithCount.groupName = group.groupName;
+            groupWithCount.studentCount = count != null ? count : 0;
+            result.add(groupWithCount);
+        }
+        return new Counts(result, countsVersion);
+    }
+
+    /**
+     * Начало записи студента, вызывается до транзакции.
+     */
+    synchronized void beginWrite() {
+        writes++;
+        version++;
+    }
+
+    /**
+     * Значение счётчика записей в student. Репозиторий читает его в транзакции записи до и после
+     * неё и передаёт в {@link #endWrite}.
+     */
+    @WorkerThread
+    long readStudentWrites() {
+        return source.readStudentWrites();
+    }
+
+    /**
+     * Конец записи студента, вызывается после транзакции, даже если она не удалась. Меняет
+     * количества групп removed и inserted.
+     *
+     * @param writesBefore значение счётчика записей в начале транзакции.
+     * @param writesAfter  значение счётчика записей в конце транзакции. Если до транзакции были
+     *                     неучтённые записи, то количества сбрасываются.
+     * @return номер этого изменения.
+     */
+    synchronized int endWrite(
+            @Nullable Student removed,
+            @Nullable Student inserted,
+            long writesBefore,
+            long writesAfter
+    ) {
+        writes--;
+        version++;
+        if (counts != null && (removed != null || inserted != null)) {
+            if (writesBefore == countedWrites) {
+                if (removed != null) {
+                    add(removed.groupId, -1);
+                }
+                if (inserted != null) {
+                    add(inserted.groupId, 1);
+                }
+                countedWrites = writesAfter;
+            } else {
+                counts = null;
+            }
+        }
+        // сообщение о чужой записи, пришедшее во время этой
+        if (counts != null && reportedWrites > countedWrites) {
+            counts = null;
+        }
+        if (writes == 0) {
+            reportedWrites = -1;
+        }
+        return version;
+    }
+
+    /**
+     * Номер последнего изменения.
+     */
+    synchronized int getVersion() {
+        return version;
+    }
+
+    /**
+     * Вызывается InvalidationTracker после записи в student. Сбрасывает количества, если в них
+     * учтены не все записи.
+     */
+    @VisibleForTesting
+    @WorkerThread
+    void onStudentsChanged() {
+        long studentWrites = source.readStudentWrites();
+        synchronized (this) {
+            if (counts == null || studentWrites == countedWrites) {
+                return;
+            }
+            if (writes > 0) {
+                // запись репозитория закончилась, но endWrite ещё не вызван. Если в studentWrites
+                // есть и чужие записи, кэш сбросит endWrite
+                reportedWrites = Math.max(reportedWrites, studentWrites);
+                return;
+            }
+            version++;
+            counts = null;
+        }
+    }
+
+    /**
+     * Начало изменений, которые нельзя посчитать на месте. До {@link #endBulkChange()} кэш не
+     * используется.
+     */
+    synchronized void beginBulkChange() {
+        bulkChanges++;
+        version++;
+        counts = null;
+    }
+
+    synchronized void endBulkChange() {
+        bulkChanges--;
+        version++;
+        counts = null;
+    }
+
+    //под this
+    private void add(int groupId, int delta) {
+        Integer count = counts.get(groupId);
+        counts.put(groupId, (count != null ? count : 0) + delta);
+    }
+
+    //копирует количества в result, чтобы не держать блокировку, пока собирается результат
+    private int getCounts(Map<Integer, Integer> result) {
+        int loadedVersion;
+        synchronized (this) {
+            if (counts != null) {
+                result.putAll(counts);
+                return version;
+            }
+            loadedVersion = version;
+        }
+        // счётчик не изменился за время подсчёта - в количествах ровно столько записей
+        long writesBefore = source.readStudentWrites();
+        for (GroupWithCount group : source.loadCounts()) {
+            result.put(group.id, group.studentCount);
+        }
+        long writesAfter = source.readStudentWrites();
+        synchronized (this) {
+            // запись, начатая до чтения или во время него, могла попасть в прочитанное, а могла и нет
+            if (version == loadedVersion && writes == 0 && bulkChanges == 0 && writesBefore == writesAfter) {
+                counts = new HashMap<>(result);
+                countedWrites = writesAfter;
+                return loadedVersion;
+            }
+            return -1;
+        }
+    }
+
+    private static class DatabaseSource implements Source {
+
+        private final Lab4Database db;
+
+        DatabaseSource(Lab4Database db) {
+            this.db = db;
+        }
+
+        @NonNull
+        @Override
+        public List<Group> getGroups() {
+            return db.getGroupCache().getAll();
+        }
+
+        @NonNull
+        @Override
+        public List<GroupWithCount> loadCounts() {
+            return db.groupDao().getAllWithCounts();
+        }
+
+        // таблицы нет среди сущностей Room, поэтому не через DAO
+        @Override
+        public long readStudentWrites() {
+            Cursor cursor = db.query("SELECT writes FROM student_write_count", null);
+            try {
+                return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+}
@@ -4,6 +4,7 @@ import androidx.annotation.NonNull;
 import androidx.room.Dao;
 import androidx.room.Delete;
 import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
 
 import java.util.List;
@@ -13,8 +14,30 @@ public interface GroupDao {
     @Query("SELECT * FROM `group`")
     List<Group> getAll();
 
-    @Insert
-    void insert(@NonNull Group group);
+    /**
+     * Все группы с количеством студентов в каждой, группы без студентов - с 0. Студенты считаются
+     * по индексу на group_id без чтения самих строк.
+     */
+    @Query("SELECT g.id, g.group_name, COUNT(s.id) AS student_count " +
+            "FROM `group` AS g LEFT JOIN student AS s ON s.group_id = g.id " +
+            "GROUP BY g.id ORDER BY g.id")
+    List<GroupWithCount> getAllWithCounts();
+
+    /**
+     * Добавляет группу, если группы с таким названием ещё нет.
+     *
+     * @return id добавленной группы или -1, если такая группа уже есть.
+     */
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    long insert(@NonNull Group group);
+
+    /**
+     * Добавляет группы одной транзакцией, группы с уже существующими названиями пропускаются.
+     *
+     * @return id добавленных групп, -1 на месте пропущенных.
+     */
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    long[] insertAll(@NonNull List<Group> groups);
 
     @Query("SELECT * FROM `group` WHERE "+
             "id = :groupId")
@@ -23,10 +46,4 @@ public interface GroupDao {
     @Query("SELECT * FROM `group` WHERE "+
             "group_name = :groupName")
     Group selectByName(@NonNull String groupName);
-
-    @Query(
-            "SELECT COUNT(*) FROM `group` WHERE " +
-                    "group_name = :groupName"
-    )
-    int count(@NonNull String groupName);
 }
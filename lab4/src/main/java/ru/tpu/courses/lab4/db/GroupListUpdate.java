@@ -0,0 +1,47 @@
+package ru.tpu.courses.lab4.db;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.List;
+
+/**
+ * Новое состояние списка групп после изменений в БД, см.
+ * {@link Lab4Repository#loadGroupListUpdate}.
+ * <p>
+ * Кроме групп с количествами хранит, откуда из группы ушёл и куда в группу пришёл изменившийся
+ * студент. По ним {@link ru.tpu.courses.lab4.adapter.GroupStudentAdapter} сообщает списку о
+ * вставке и удалении одной строки, не зная остальных студентов группы.
+ */
+public class GroupListUpdate {
+
+    @NonNull
+    public final List<GroupWithCount> groups;
+    @Nullable
+    public final Student removed;
+    //номер студента removed в его группе до изменения, -1 если removed == null
+    public final int removedIndex;
+    @Nullable
+    public final Student inserted;
+    //номер студента inserted в его группе после изменения, -1 если inserted == null
+    public final int insertedIndex;
+    //были изменения, о которых неизвестно, каких студентов они затронули, поэтому загруженных
+    //студентов нужно перечитать
+    public final boolean unknownChanges;
+
+    public GroupListUpdate(
+            @NonNull List<GroupWithCount> groups,
+            @Nullable Student removed,
+            int removedIndex,
+            @Nullable Student inserted,
+            int insertedIndex,
+            boolean unknownChanges
+    ) {
+        this.groups = groups;
+        this.removed = removed;
+        this.removedIndex = removedIndex;
+        this.inserted = inserted;
+        this.insertedIndex = insertedIndex;
+        this.unknownChanges = unknownChanges;
+    }
+}
@@ -0,0 +1,24 @@
+package ru.tpu.courses.lab4.db;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+
+/**
+ * Группа и количество её студентов, см. {@link GroupDao#getAllWithCounts()}.
+ */
+public class GroupWithCount {
+
+    public int id;
+    @NonNull
+    @ColumnInfo(name = "group_name")
+    public String groupName;
+    @ColumnInfo(name = "student_count")
+    public int studentCount;
+
+    @NonNull
+    public Group toGroup() {
+        Group group = new Group(groupName);
+        group.id = id;
+        return group;
+    }
+}
@@ -0,0 +1,72 @@
+package ru.tpu.courses.lab4.db;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+import androidx.sqlite.db.SupportSQLiteStatement;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Частые запросы, скомпилированные один раз, см. {@link Lab4Database.Config#compiledStatements}.
+ * <p>
+ * Для запроса из {@link androidx.room.Query} Room каждый раз собирает запрос с параметрами и
+ * читает результат через Cursor, под который выделяется CursorWindow, даже если результат - одно
+ * число. Скомпилированный запрос только заново привязывает параметры и сразу возвращает число.
+ * Вставки и обновления Room и так компилирует один раз.
+ * <p>
+ * Скомпилированный запрос нельзя выполнять с нескольких потоков одновременно, поэтому у каждого
+ * потока свой экземпляр. Потоков в пулах {@link Lab4Database} немного, поэтому и запросов тоже.
+ * Все экземпляры запоминаются и закрываются вместе с БД, см. {@link #close()}.
+ */
+class HotQueries {
+
+    // тот же запрос, что и StudentDao.countBefore
+    private static final String COUNT_BEFORE = "SELECT COUNT(*) FROM student WHERE group_id = ? AND " +
+            "last_name <= ? AND (last_name < ? OR id < ?)";
+
+    private final Lab4Database db;
+    private final ThreadLocal<SupportSQLiteStatement> countBefore = new ThreadLocal<>();
+    //запросы всех потоков, под своей блокировкой
+    private final List<SupportSQLiteStatement> statements = new ArrayList<>();
+
+    HotQueries(@NonNull Lab4Database db) {
+        this.db = db;
+    }
+
+    /**
+     * @see StudentDao#countBefore
+     */
+    @WorkerThread
+    int countBefore(int groupId, @NonNull String lastName, int id) {
+        SupportSQLiteStatement statement = countBefore.get();
+        if (statement == null) {
+            statement = db.compileStatement(COUNT_BEFORE);
+            countBefore.set(statement);
+            synchronized (statements) {
+                statements.add(statement);
+            }
+        }
+        statement.bindLong(1, groupId);
+        statement.bindString(2, lastName);
+        statement.bindString(3, lastName);
+        statement.bindLong(4, id);
+        return (int) statement.simpleQueryForLong();
+    }
+
+    /**
+     * Закрывает запросы всех потоков. Вызывается при закрытии БД, когда запросы уже не выполняются.
+     */
+    void close() {
+        synchronized (statements) {
+            for (SupportSQLiteStatement statement : statements) {
+                try {
+                    statement.close();
+                } catch (IOException ignored) {
+                }
+            }
+            statements.clear();
+        }
+    }
+}
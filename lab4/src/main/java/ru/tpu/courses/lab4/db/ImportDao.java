@@ -0,0 +1,73 @@
+package ru.tpu.courses.lab4.db;
+
+import androidx.annotation.NonNull;
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+import androidx.room.Transaction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Массовое добавление студентов вместе с их группами, см. {@link StudentsCsvImporter}.
+ * <p>
+ * Каждая отдельная вставка - это своя транзакция и своя запись журнала на диск, поэтому
+ * студенты добавляются пачками, каждая в одной транзакции.
+ */
+@Dao
+public interface ImportDao {
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    long insertGroup(@NonNull Group group);
+
+    @Query("SELECT id FROM `group` WHERE group_name = :groupName")
+    int selectGroupId(@NonNull String groupName);
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    long[] insertStudents(@NonNull List<Student> students);
+
+    /**
+     * Добавляет пачку студентов одной транзакцией. Недостающие группы создаются в той же
+     * транзакции.
+     *
+     * @param groupNames названия групп студентов, по одному на каждого студента.
+     * @param groupIds   известные id групп по названию, дополняется созданными группами. Если
+     *                   пачка не добавилась, созданные в ней группы из словаря убираются.
+     * @return количество добавленных студентов, уже существующие пропускаются.
+     */
+    @Transaction
+    default int importStudents(
+            @NonNull List<Student> students,
+            @NonNull List<String> groupNames,
+            @NonNull Map<String, Integer> groupIds
+    ) {
+        List<String> created = new ArrayList<>();
+        try {
+            for (int i = 0; i < students.size(); i++) {
+                String groupName = groupNames.get(i);
+                Integer groupId = groupIds.get(groupName);
+                if (groupId == null) {
+                    long id = insertGroup(new Group(groupName));
+                    groupId = id != -1 ? (int) id : selectGroupId(groupName);
+                    groupIds.put(groupName, groupId);
+                    created.add(groupName);
+                }
+                students.get(i).groupId = groupId;
+            }
+            int inserted = 0;
+            for (long id : insertStudents(students)) {
+                if (id != -1) {
+                    inserted++;
+                }
+            }
+            return inserted;
+        } catch (RuntimeException e) {
+            // транзакция откатится вместе с созданными группами
+            groupIds.keySet().removeAll(created);
+            throw e;
+        }
+    }
+}
@@ -1,8 +1,11 @@
 package ru.tpu.courses.lab4.db;
 
 import android.content.Context;
+import android.os.Process;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
 import androidx.room.Database;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
@@ -10,6 +13,9 @@ import androidx.room.migration.Migration;
 import androidx.sqlite.db.SupportSQLiteDatabase;
 
 import java.lang.reflect.Array;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * <p>
@@ -29,12 +35,80 @@ import java.lang.reflect.Array;
  * через {@link Room#databaseBuilder(Context, Class, String)} (см. метод {@link #getInstance(Context)})
  * Room возвращает нам инстанс уже сгенерированной реализации БД.
  * </p>
+ * <p>
+ * Room запрещает запросы на UI потоке, поэтому экраны работают с БД через {@link Lab4Repository}.
+ * </p>
+ * <p>
+ * Режим журнала, количество потоков чтения и настройки SQLite задаются через {@link Config} при
+ * первом вызове {@link #getInstance(Context, Config)}.
+ * </p>
  */
-@Database(entities = {Student.class, Group.class}, version = 4, exportSchema = false)
+@Database(entities = {Student.class, Group.class, StudentFts.class}, version = 7, exportSchema = false)
 public abstract class Lab4Database extends RoomDatabase {
 
     private static Lab4Database db;
 
+    // Устанавливаем низкий приоритет потокам, чтобы не мешать UI потоку
+    static final ThreadFactory BACKGROUND_THREADS = runnable -> new Thread(() -> {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        runnable.run();
+    }, "Lab4Database");
+
+    /**
+     * Настройки работы с БД. Значения по умолчанию выбраны под одновременные чтение списка и
+     * запись из разных экранов по замеру на настольном SQLite, а не на устройстве: замер на
+     * устройстве - инструментальный тест ConcurrencyBenchmark, его результаты пока не записаны.
+     */
+    public static class Config {
+        public static final String SYNCHRONOUS_OFF = "OFF";
+        public static final String SYNCHRONOUS_NORMAL = "NORMAL";
+        public static final String SYNCHRONOUS_FULL = "FULL";
+
+        /**
+         * Журнал упреждающей записи (WAL): запись идёт в отдельный файл журнала, поэтому чтения
+         * не ждут окончания записи, а запись не ждёт чтений. Android при этом открывает несколько
+         * соединений для чтения. Без WAL (journal_mode TRUNCATE) соединение одно, и каждый запрос
+         * ждёт предыдущий. Room по умолчанию тоже выбирает WAL, но не на устройствах с малым
+         * объёмом памяти.
+         */
+        public boolean writeAheadLogging = true;
+        /**
+         * Сколько запросов на чтение выполняется одновременно, см. {@link #getReaderExecutor()}.
+         * Размер пула соединений Android выбирает сам, больше потоков, чем соединений, не даёт
+         * прироста.
+         */
+        public int readerThreads = 2;
+        /**
+         * Размер кэша страниц соединения для записи в КБ (PRAGMA cache_size).
+         */
+        public int cacheSizeKb = 4096;
+        /**
+         * PRAGMA synchronous соединения для записи. В режиме WAL NORMAL не теряет данные при
+         * падении приложения, а при отключении питания может потерять последние транзакции, зато
+         * не ждёт записи на диск при каждой транзакции. Без WAL надёжен только FULL.
+         */
+        @NonNull
+        public String synchronous = SYNCHRONOUS_NORMAL;
+        /**
+         * Выполнять частые запросы через заранее скомпилированные запросы, см. {@link HotQueries}.
+         */
+        public boolean compiledStatements = true;
+
+        /**
+         * Применяет PRAGMA к соединению, на котором открывается БД, через него же идёт вся запись.
+         */
+        void applyPragmas(@NonNull SupportSQLiteDatabase database) {
+            // отрицательный cache_size - в КБ
+            database.execSQL("PRAGMA cache_size = -" + cacheSizeKb);
+            database.execSQL("PRAGMA synchronous = " + synchronous);
+        }
+    }
+
+    private ExecutorService readerExecutor;
+    private HotQueries hotQueries;
+    private GroupCache groupCache;
+    private GroupCountCache groupCountCache;
+
 
     public static final Migration MIGRATION_1_2 = new Migration(1,2) {
         @Override
@@ -73,27 +147,205 @@ public abstract class Lab4Database extends RoomDatabase {
         }
     };
 
+    public static final Migration MIGRATION_4_5 = new Migration(4,5) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            // до уникальных индексов убираем дубликаты: студентов из повторяющихся групп переносим
+            // в первую группу с таким названием, а из повторяющихся студентов оставляем первого
+            database.execSQL("UPDATE student SET group_id = (" +
+                    "SELECT MIN(g.id) FROM `group` AS g WHERE g.group_name = (" +
+                    "SELECT d.group_name FROM `group` AS d WHERE d.id = student.group_id)) " +
+                    "WHERE group_id IN (SELECT d.id FROM `group` AS d WHERE d.id > (" +
+                    "SELECT MIN(g.id) FROM `group` AS g WHERE g.group_name = d.group_name))");
+            database.execSQL("DELETE FROM `group` WHERE id > (" +
+                    "SELECT MIN(g.id) FROM `group` AS g WHERE g.group_name = `group`.group_name)");
+            database.execSQL("DELETE FROM student WHERE id > (" +
+                    "SELECT MIN(s.id) FROM student AS s WHERE " +
+                    "s.first_name = student.first_name AND " +
+                    "s.second_name = student.second_name AND " +
+                    "s.last_name = student.last_name AND " +
+                    "s.group_id = student.group_id)");
+
+            // индекс для выборки студентов группы в порядке фамилий, см. StudentDao
+            database.execSQL("CREATE INDEX IF NOT EXISTS index_Student_group_id_last_name " +
+                    "ON student (group_id, last_name)");
+            // поиск группы по названию и запрет одинаковых групп
+            database.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS index_Group_group_name " +
+                    "ON `group` (group_name)");
+            // запрет одинаковых студентов в одной группе
+            database.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS " +
+                    "index_Student_first_name_second_name_last_name_group_id " +
+                    "ON student (first_name, second_name, last_name, group_id)");
+        }
+    };
+
+    public static final Migration MIGRATION_5_6 = new Migration(5,6) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            // полнотекстовый индекс по ФИО, см. StudentFts. Таблица и триггеры синхронизации
+            // совпадают с теми, что Room создаёт в новой БД
+            database.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `StudentFts` USING FTS4(" +
+                    "`first_name` TEXT NOT NULL, `second_name` TEXT NOT NULL, " +
+                    "`last_name` TEXT NOT NULL, content=`Student`)");
+            database.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_StudentFts_BEFORE_UPDATE " +
+                    "BEFORE UPDATE ON `Student` BEGIN " +
+                    "DELETE FROM `StudentFts` WHERE `docid`=OLD.`rowid`; END");
+            database.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_StudentFts_BEFORE_DELETE " +
+                    "BEFORE DELETE ON `Student` BEGIN " +
+                    "DELETE FROM `StudentFts` WHERE `docid`=OLD.`rowid`; END");
+            database.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_StudentFts_AFTER_UPDATE " +
+                    "AFTER UPDATE ON `Student` BEGIN " +
+                    "INSERT INTO `StudentFts`(`docid`, `first_name`, `second_name`, `last_name`) " +
+                    "VALUES (NEW.`rowid`, NEW.`first_name`, NEW.`second_name`, NEW.`last_name`); END");
+            database.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_StudentFts_AFTER_INSERT " +
+                    "AFTER INSERT ON `Student` BEGIN " +
+                    "INSERT INTO `StudentFts`(`docid`, `first_name`, `second_name`, `last_name`) " +
+                    "VALUES (NEW.`rowid`, NEW.`first_name`, NEW.`second_name`, NEW.`last_name`); END");
+            // индексируем уже добавленных студентов
+            database.execSQL("INSERT INTO `StudentFts`(`StudentFts`) VALUES ('rebuild')");
+        }
+    };
+
+    public static final Migration MIGRATION_6_7 = new Migration(6,7) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            createStudentWriteCount(database);
+        }
+    };
+
+    /**
+     * Счётчик записей в student, меняющих количество студентов в группах, см.
+     * {@link GroupCountCache}. Таблицы нет среди сущностей, поэтому в новой БД она создаётся так же,
+     * как при миграции.
+     */
+    static void createStudentWriteCount(@NonNull SupportSQLiteDatabase database) {
+        database.execSQL("CREATE TABLE IF NOT EXISTS student_write_count (writes INTEGER NOT NULL)");
+        database.execSQL("INSERT INTO student_write_count (writes) " +
+                "SELECT 0 WHERE NOT EXISTS (SELECT * FROM student_write_count)");
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS student_write_count_AFTER_INSERT " +
+                "AFTER INSERT ON student BEGIN " +
+                "UPDATE student_write_count SET writes = writes + 1; END");
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS student_write_count_AFTER_DELETE " +
+                "AFTER DELETE ON student BEGIN " +
+                "UPDATE student_write_count SET writes = writes + 1; END");
+        // смена ФИО количества не меняет
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS student_write_count_AFTER_UPDATE " +
+                "AFTER UPDATE OF group_id ON student BEGIN " +
+                "UPDATE student_write_count SET writes = writes + 1; END");
+    }
+
     @NonNull
     public static Lab4Database getInstance(@NonNull Context context) {
+        return getInstance(context, new Config());
+    }
+
+    /**
+     * БД с настройками config. Настройки применяются только при первом вызове, пока БД ещё не
+     * создана, поэтому задать их нужно до первого обращения к БД.
+     */
+    @NonNull
+    public static Lab4Database getInstance(@NonNull Context context, @NonNull Config config) {
         if (db == null) {
             synchronized (Lab4Database.class) {
                 if (db == null) {
-                    db = Room.databaseBuilder(
-                            context.getApplicationContext(),
-                            Lab4Database.class,
-                            "lab4_database"
-                    )
-                            .addMigrations(new Migration[]{MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4})
-                            .allowMainThreadQueries()
-                            .build();
+                    db = create(context, config, "lab4_database");
                 }
             }
         }
         return db;
     }
 
+    /**
+     * Отдельная от {@link #getInstance} БД в файле name, например для замера с разными
+     * {@link Config}. Закрывается через {@link #close()}.
+     */
+    @NonNull
+    @VisibleForTesting
+    static Lab4Database create(@NonNull Context context, @NonNull Config config, @NonNull String name) {
+        Lab4Database instance = Room.databaseBuilder(
+                context.getApplicationContext(),
+                Lab4Database.class,
+                name
+        )
+                .addMigrations(new Migration[]{MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5, MIGRATION_5_6, MIGRATION_6_7})
+                .setJournalMode(config.writeAheadLogging
+                        ? JournalMode.WRITE_AHEAD_LOGGING
+                        : JournalMode.TRUNCATE)
+                .addCallback(new Callback() {
+                    @Override
+                    public void onCreate(@NonNull SupportSQLiteDatabase database) {
+                        createStudentWriteCount(database);
+                    }
+
+                    @Override
+                    public void onOpen(@NonNull SupportSQLiteDatabase database) {
+                        config.applyPragmas(database);
+                    }
+                })
+                .build();
+        instance.readerExecutor = Executors.newFixedThreadPool(
+                Math.max(1, config.readerThreads),
+                BACKGROUND_THREADS
+        );
+        if (config.compiledStatements) {
+            instance.hotQueries = new HotQueries(instance);
+        }
+        instance.groupCache = new GroupCache(instance);
+        instance.groupCountCache = new GroupCountCache(instance);
+        return instance;
+    }
+
+    /**
+     * Закрывает скомпилированные запросы, соединения и пул потоков чтения. БД из
+     * {@link #getInstance} живёт столько же, сколько процесс, и не закрывается.
+     */
+    @Override
+    public void close() {
+        if (hotQueries != null) {
+            hotQueries.close();
+        }
+        super.close();
+        readerExecutor.shutdown();
+    }
+
+    /**
+     * Пул потоков для чтения из БД, размер задаётся {@link Config#readerThreads}.
+     */
+    @NonNull
+    public ExecutorService getReaderExecutor() {
+        return readerExecutor;
+    }
+
+    /**
+     * Группы в памяти, общие для всех экранов.
+     */
+    @NonNull
+    public GroupCache getGroupCache() {
+        return groupCache;
+    }
+
+    /**
+     * Количество студентов в группах в памяти. Записи через {@link Lab4Repository} меняют его на
+     * месте, остальные записи в student сбрасывают его.
+     */
+    @NonNull
+    public GroupCountCache getGroupCountCache() {
+        return groupCountCache;
+    }
+
+    /**
+     * @see StudentDao#countBefore
+     */
+    @WorkerThread
+    int countStudentsBefore(int groupId, @NonNull String lastName, int id) {
+        return hotQueries != null
+                ? hotQueries.countBefore(groupId, lastName, id)
+                : studentDao().countBefore(groupId, lastName, id);
+    }
+
     public abstract StudentDao studentDao();
     public abstract GroupDao groupDao();
+    public abstract ImportDao importDao();
 
 
 }
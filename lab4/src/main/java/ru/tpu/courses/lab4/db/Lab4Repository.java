@@ -0,0 +1,534 @@
+package ru.tpu.courses.lab4.db;
+
+import android.content.Context;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.util.Log;
+import android.view.Choreographer;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.room.InvalidationTracker;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Асинхронный доступ к {@link StudentDao} и {@link GroupDao}.
+ * <p>
+ * Запросы к БД на UI потоке блокируют отрисовку и обработку нажатий, поэтому все запросы
+ * выполняются на фоновых потоках, а результат приходит в {@link Callback} на UI потоке, по
+ * аналогии с Task и Observer из lab5. Чтение идёт на отдельном пуле потоков, а запись - на одном
+ * потоке, чтобы записи выполнялись по очереди и не мешали чтению.
+ * <p>
+ * Каждый экран создаёт свой репозиторий и вызывает {@link #cancel()} в onDestroy: после этого
+ * ещё не начатые чтения не выполняются, а результаты уже идущих запросов не доставляются, чтобы
+ * не держать ссылку на уничтоженную Activity. Начатая запись при этом всё равно доводится до конца.
+ * <p>
+ * Экран может подписаться на изменения таблиц через {@link #observe}, тогда он узнаёт о записи в
+ * БД из любого места приложения. Записи через репозиторий дополнительно запоминают, какого
+ * студента они изменили, чтобы {@link #loadGroupListUpdate} мог сообщить об этом списку.
+ */
+public class Lab4Repository {
+
+    /**
+     * Получатель результата запроса, вызывается на UI потоке. Если запрос не удался, например в
+     * SQLite кончилось место или БД заблокирована, то data - null.
+     */
+    public interface Callback<T> {
+        @MainThread
+        void onResult(@Nullable T data);
+    }
+
+    private interface Query<T> {
+        @WorkerThread
+        T run(@NonNull Lab4Database db);
+    }
+
+    /**
+     * Изменение, сделанное через репозиторий. Если removed и inserted равны null, то изменились
+     * только группы. Номера студентов в группе считаются в транзакции записи: removedIndex - до
+     * записи, insertedIndex - после, см. {@link GroupListUpdate}.
+     */
+    private static class Change {
+        final Student removed;
+        final int removedIndex;
+        final Student inserted;
+        final int insertedIndex;
+        //номер изменения GroupCountCache, задаётся под CHANGES_LOCK после записи
+        int version;
+
+        Change(@Nullable Student removed, int removedIndex, @Nullable Student inserted, int insertedIndex) {
+            this.removed = removed;
+            this.removedIndex = removedIndex;
+            this.inserted = inserted;
+            this.insertedIndex = insertedIndex;
+        }
+    }
+
+    // Номер изменения GroupCountCache получается и изменение запоминается под этой блокировкой,
+    // поэтому изменение с номером не больше прочитанного уже лежит в changes. Сами запись и
+    // чтение идут без неё, см. GroupCountCache
+    private static final Object CHANGES_LOCK = new Object();
+    // репозитории с подпиской через observe, им запоминаются изменения
+    private static final List<Lab4Repository> OBSERVING = new ArrayList<>();
+
+    private static final String TAG = "Lab4Repository";
+
+    private static final ExecutorService WRITER =
+            Executors.newSingleThreadExecutor(Lab4Database.BACKGROUND_THREADS);
+
+    private final Lab4Database db;
+    //пул потоков чтения, см. Lab4Database.Config#readerThreads
+    private final ExecutorService reader;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private volatile boolean cancelled;
+
+    // изменения, сделанные с последнего loadGroupListUpdate, под CHANGES_LOCK
+    private final List<Change> changes = new ArrayList<>();
+    private final List<InvalidationTracker.Observer> observers = new ArrayList<>();
+
+    public Lab4Repository(@NonNull Context context) {
+        db = Lab4Database.getInstance(context);
+        reader = db.getReaderExecutor();
+    }
+
+    /**
+     * Отменяет ещё не выполненные чтения и доставку всех результатов.
+     */
+    @MainThread
+    public void cancel() {
+        cancelled = true;
+        mainHandler.removeCallbacksAndMessages(null);
+        if (!observers.isEmpty()) {
+            InvalidationTracker.Observer[] removed = observers.toArray(new InvalidationTracker.Observer[0]);
+            observers.clear();
+            // отписка пересоздаёт триггеры в БД, поэтому тоже идёт в фоне
+            reader.execute(() -> {
+                for (InvalidationTracker.Observer observer : removed) {
+                    db.getInvalidationTracker().removeObserver(observer);
+                }
+                synchronized (CHANGES_LOCK) {
+                    OBSERVING.remove(this);
+                }
+            });
+        }
+    }
+
+    /**
+     * Подписывает на изменения таблиц, откуда бы они ни были сделаны. Room сообщает об изменении
+     * каждой транзакции, поэтому все изменения до следующего кадра склеиваются: onChanged
+     * вызывается на UI потоке не чаще раза за кадр, перед отрисовкой. Первый раз onChanged
+     * вызывается сразу после подписки, чтобы загрузить данные. Подписка действует до
+     * {@link #cancel()}.
+     */
+    @MainThread
+    public void observe(@NonNull Runnable onChanged, @NonNull String... tables) {
+        AtomicBoolean scheduled = new AtomicBoolean();
+        Choreographer.FrameCallback frameCallback = frameTimeNanos -> {
+            scheduled.set(false);
+            if (!cancelled) {
+                onChanged.run();
+            }
+        };
+        Runnable schedule = () -> {
+            if (scheduled.compareAndSet(false, true)) {
+                mainHandler.post(() -> Choreographer.getInstance().postFrameCallback(frameCallback));
+            }
+        };
+        InvalidationTracker.Observer observer = new InvalidationTracker.Observer(tables) {
+            @Override
+            public void onInvalidated(@NonNull Set<String> tables) {
+                schedule.run();
+            }
+        };
+        observers.add(observer);
+        // подписка создаёт триггеры в БД, поэтому идёт в фоне. Отписка из cancel может выполниться
+        // на другом потоке пула раньше неё, поэтому после подписки отмена проверяется ещё раз
+        reader.execute(() -> {
+            synchronized (CHANGES_LOCK) {
+                if (cancelled) {
+                    return;
+                }
+                if (!OBSERVING.contains(this)) {
+                    OBSERVING.add(this);
+                }
+            }
+            db.getInvalidationTracker().addObserver(observer);
+            if (cancelled) {
+                db.getInvalidationTracker().removeObserver(observer);
+                synchronized (CHANGES_LOCK) {
+                    OBSERVING.remove(this);
+                }
+                return;
+            }
+            schedule.run();
+        });
+    }
+
+    // region students
+
+    /**
+     * Страница студентов группы для {@link ru.tpu.courses.lab4.adapter.GroupStudentPager}. Если
+     * известен последний студент предыдущей страницы, то страница ищется по нему, иначе по offset.
+     */
+    public void loadGroupPage(
+            int groupId,
+            @Nullable StudentRow previous,
+            int offset,
+            int limit,
+            @NonNull Callback<List<StudentRow>> callback
+    ) {
+        read(db -> previous != null
+                ? db.studentDao().getGroupPageAfter(groupId, previous.getLastName(), previous.id, limit)
+                : db.studentDao().getGroupPageAt(groupId, offset, limit), callback);
+    }
+
+    public void getStudent(int studentId, @NonNull Callback<Student> callback) {
+        read(db -> db.studentDao().selectStudentById(studentId), callback);
+    }
+
+    /**
+     * Добавляет студента. В callback приходит false, если такой студент в группе уже есть.
+     */
+    public void insertStudent(@NonNull Student student, @Nullable Callback<Boolean> callback) {
+        write(db -> writeStudent(db, () -> {
+            long id = db.studentDao().insert(student);
+            if (id == -1) {
+                return null;
+            }
+            student.id = (int) id;
+            return new Change(null, -1, student, indexOf(db, student));
+        }), callback);
+    }
+
+    /**
+     * Обновляет студента на месте по его id одной транзакцией, поэтому id не меняется и ссылки на
+     * студента остаются верными. В callback приходит false, если такой студент в группе уже есть
+     * или студент был удалён.
+     */
+    public void updateStudent(@NonNull Student student, @Nullable Callback<Boolean> callback) {
+        write(db -> writeStudent(db, () -> {
+            Student old = db.studentDao().selectStudentById(student.id);
+            if (old == null) {
+                return null;
+            }
+            // после записи студент уже стоит на новом месте и сдвигает номер старого
+            int oldIndex = indexOf(db, old);
+            if (db.studentDao().update(student) != 1) {
+                return null;
+            }
+            return new Change(old, oldIndex, student, indexOf(db, student));
+        }), callback);
+    }
+
+    /**
+     * Удаляет студента. В callback приходит false, если студент уже был удалён.
+     */
+    public void deleteStudent(@NonNull Student student, @Nullable Callback<Boolean> callback) {
+        write(db -> writeStudent(db, () -> {
+            Student old = db.studentDao().selectStudentById(student.id);
+            if (old == null) {
+                return null;
+            }
+            int oldIndex = indexOf(db, old);
+            return db.studentDao().deleteStudent(old) == 1 ? new Change(old, oldIndex, null, -1) : null;
+        }), callback);
+    }
+
+    /**
+     * Ищет студентов по началу слов ФИО, см. {@link StudentSearcher}. Если поиск отменён через
+     * signal, то результат не доставляется.
+     */
+    public void searchStudents(
+            @NonNull String query,
+            int limit,
+            @NonNull CancellationSignal signal,
+            @NonNull Callback<List<StudentMatch>> callback
+    ) {
+        read(db -> {
+            // отменённый поиск, ещё ждущий в очереди, не запускается
+            signal.throwIfCanceled();
+            return new StudentSearcher(db).search(query, limit, signal);
+        }, matches -> {
+            if (!signal.isCanceled()) {
+                callback.onResult(matches);
+            }
+        });
+    }
+
+    /**
+     * Импортирует студентов из CSV файла, см. {@link StudentsCsvImporter}. Если файл не
+     * прочитать, в callback приходит null, а уже добавленные пачки студентов остаются в БД.
+     */
+    public void importStudentsCsv(
+            @NonNull File file,
+            @Nullable Callback<StudentsCsvImporter.Result> callback
+    ) {
+        write(db -> {
+            Reader reader = null;
+            db.getGroupCountCache().beginBulkChange();
+            try {
+                reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+                StudentsCsvImporter.Result result = new StudentsCsvImporter(db).importCsv(reader);
+                Log.d(TAG, "import " + file.getName() + ": " + result);
+                return result;
+            } catch (IOException e) {
+                Log.e(TAG, "import " + file.getName() + " failed", e);
+                return null;
+            } finally {
+                // пачки, добавленные до ошибки, тоже могли создать группы
+                db.getGroupCache().invalidate();
+                db.getGroupCountCache().endBulkChange();
+                if (reader != null) {
+                    try {
+                        reader.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }, callback);
+    }
+
+    /**
+     * Записывает все группы и студентов в файл, см. {@link Lab4Snapshot}. Выполняется на потоке
+     * записи, поэтому снимок не разрывает ничья запись. Если файл не записать, в callback
+     * приходит null.
+     */
+    public void exportSnapshot(@NonNull File file, @Nullable Callback<Lab4Snapshot.Result> callback) {
+        write(db -> {
+            FileOutputStream out = null;
+            try {
+                out = new FileOutputStream(file);
+                Lab4Snapshot.Result result = new Lab4Snapshot(db).export(out.getChannel());
+                out.getFD().sync();
+                Log.d(TAG, "export " + file.getName() + ": " + result);
+                return result;
+            } catch (IOException e) {
+                Log.e(TAG, "export " + file.getName() + " failed", e);
+                return null;
+            } finally {
+                if (out != null) {
+                    try {
+                        out.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }, callback);
+    }
+
+    /**
+     * Заменяет все группы и студентов снимком из файла, см. {@link Lab4Snapshot}. Если файл не
+     * прочитать, в callback приходит null, а группы и студенты остаются прежними.
+     */
+    public void importSnapshot(@NonNull File file, @Nullable Callback<Lab4Snapshot.Result> callback) {
+        write(db -> {
+            FileInputStream in = null;
+            db.getGroupCountCache().beginBulkChange();
+            try {
+                in = new FileInputStream(file);
+                Lab4Snapshot.Result result = new Lab4Snapshot(db).importSnapshot(in.getChannel());
+                // группы заменены целиком
+                db.getGroupCache().invalidate();
+                Log.d(TAG, "import " + file.getName() + ": " + result);
+                return result;
+            } catch (IOException e) {
+                Log.e(TAG, "import " + file.getName() + " failed", e);
+                return null;
+            } finally {
+                db.getGroupCountCache().endBulkChange();
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }, callback);
+    }
+
+    // endregion
+
+    // region groups
+
+    /**
+     * Группы с количеством студентов и то, что изменилось с прошлого вызова, см.
+     * {@link GroupListUpdate}. Если с прошлого вызова через репозиторий был изменён ровно один
+     * студент, то передаются его номера в группе до и после изменения, посчитанные при записи.
+     */
+    public void loadGroupListUpdate(@NonNull Callback<GroupListUpdate> callback) {
+        read(db -> {
+            GroupCountCache.Counts counts = db.getGroupCountCache().getAllWithCounts();
+            // изменения, которые уже учтены в количествах. Остальные достанутся следующему вызову
+            List<Change> taken = new ArrayList<>();
+            synchronized (CHANGES_LOCK) {
+                int count = 0;
+                while (count < changes.size() &&
+                        (counts.version == -1 || changes.get(count).version <= counts.version)) {
+                    count++;
+                }
+                taken.addAll(changes.subList(0, count));
+                changes.subList(0, count).clear();
+            }
+            Change studentChange = null;
+            int studentChanges = 0;
+            for (Change change : taken) {
+                if (change.removed != null || change.inserted != null) {
+                    studentChange = change;
+                    studentChanges++;
+                }
+            }
+            // изменение не через репозиторий (например, импорт), несколько изменений сразу или
+            // неизвестно, какие изменения вошли в количества
+            boolean unknownChanges = counts.version == -1 || taken.isEmpty() || studentChanges > 1;
+            Change known = !unknownChanges && studentChanges == 1 ? studentChange : new Change(null, -1, null, -1);
+            return new GroupListUpdate(
+                    counts.groups,
+                    known.removed,
+                    known.removedIndex,
+                    known.inserted,
+                    known.insertedIndex,
+                    unknownChanges
+            );
+        }, callback);
+    }
+
+    /**
+     * Группы с количеством студентов из {@link GroupCountCache}.
+     */
+    public void loadGroupsWithCounts(@NonNull Callback<List<GroupWithCount>> callback) {
+        read(db -> db.getGroupCountCache().getAllWithCounts().groups, callback);
+    }
+
+    /**
+     * Все группы из {@link GroupCache}, список нельзя изменять.
+     */
+    public void getGroups(@NonNull Callback<List<Group>> callback) {
+        read(db -> db.getGroupCache().getAll(), callback);
+    }
+
+    public void getGroupByName(@NonNull String groupName, @NonNull Callback<Group> callback) {
+        read(db -> db.getGroupCache().getByName(groupName), callback);
+    }
+
+    /**
+     * Добавляет группу. В callback приходит false, если группа с таким названием уже есть.
+     */
+    public void insertGroup(@NonNull Group group, @Nullable Callback<Boolean> callback) {
+        write(db -> {
+            if (db.groupDao().insert(group) == -1) {
+                return false;
+            }
+            db.getGroupCache().invalidate();
+            synchronized (CHANGES_LOCK) {
+                addChange(new Change(null, -1, null, -1), db.getGroupCountCache().getVersion());
+            }
+            return true;
+        }, callback);
+    }
+
+    // endregion
+
+    //номер студента в его группе в порядке (фамилия, id)
+    @WorkerThread
+    private static int indexOf(@NonNull Lab4Database db, @NonNull Student student) {
+        return db.countStudentsBefore(student.groupId, student.lastName, student.id);
+    }
+
+    /**
+     * Запись студента транзакцией transaction, которая возвращает изменение или null, если
+     * ничего не записано. Количества в {@link GroupCountCache} меняются, а изменение
+     * запоминается после завершения транзакции.
+     */
+    @WorkerThread
+    private static boolean writeStudent(@NonNull Lab4Database db, @NonNull Callable<Change> transaction) {
+        GroupCountCache counts = db.getGroupCountCache();
+        counts.beginWrite();
+        Change change = null;
+        //счётчик записей в student до и после транзакции, см. GroupCountCache
+        long[] writes = {-1, -1};
+        try {
+            change = db.runInTransaction(() -> {
+                writes[0] = counts.readStudentWrites();
+                Change written = transaction.call();
+                writes[1] = counts.readStudentWrites();
+                return written;
+            });
+        } finally {
+            synchronized (CHANGES_LOCK) {
+                int version = counts.endWrite(
+                        change != null ? change.removed : null,
+                        change != null ? change.inserted : null,
+                        writes[0],
+                        writes[1]
+                );
+                if (change != null) {
+                    addChange(change, version);
+                }
+            }
+        }
+        return change != null;
+    }
+
+    //вызывается под CHANGES_LOCK после записи
+    private static void addChange(@NonNull Change change, int version) {
+        change.version = version;
+        for (Lab4Repository repository : OBSERVING) {
+            repository.changes.add(change);
+        }
+    }
+
+    private <T> void read(Query<T> query, Callback<T> callback) {
+        reader.execute(() -> {
+            if (!cancelled) {
+                deliver(run(query), callback);
+            }
+        });
+    }
+
+    private <T> void write(Query<T> query, Callback<T> callback) {
+        WRITER.execute(() -> deliver(run(query), callback));
+    }
+
+    //исключение из запроса не должно завершать поток, а вместе с ним и приложение: оно пишется в
+    //лог, а в callback приходит null
+    @Nullable
+    private <T> T run(Query<T> query) {
+        try {
+            return query.run(db);
+        } catch (OperationCanceledException e) {
+            // запрос отменён, например поиск новым запросом, это не ошибка
+            return null;
+        } catch (RuntimeException e) {
+            Log.e(TAG, "query failed", e);
+            return null;
+        }
+    }
+
+    private <T> void deliver(T data, Callback<T> callback) {
+        if (callback == null || cancelled) {
+            return;
+        }
+        mainHandler.post(() -> {
+            if (!cancelled) {
+                callback.onResult(data);
+            }
+        });
+    }
+}
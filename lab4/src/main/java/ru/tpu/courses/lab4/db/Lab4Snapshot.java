@@ -0,0 +1,601 @@
+package ru.tpu.courses.lab4.db;
+
+import android.database.Cursor;
+import android.database.SQLException;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteStatement;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Снимок таблиц group и student в двоичном файле: резервная копия или перенос всех данных на
+ * другое устройство.
+ * <p>
+ * Формат: "L4S", байт версии, затем раздел групп и раздел студентов. Раздел начинается с байта
+ * типа, за ним идут записи, каждая запись - длина в байтах и поля. Раздел заканчивается записью
+ * нулевой длины. Числа записываются в varint: по 7 бит в байте, старший бит означает, что есть
+ * следующий байт, поэтому id до 127 занимают 1 байт, а до 16383 - 2. Строка - длина в varint и
+ * байты UTF-8. Поля записи:
+ * <ul>
+ * <li>группа: id, название;</li>
+ * <li>студент: id, id группы, имя, отчество, фамилия.</li>
+ * </ul>
+ * Благодаря длине записи более новая версия может добавлять поля в конец записи, а импорт
+ * пропускает незнакомые поля. Запись не длиннее {@link #MAX_RECORD_SIZE} байт.
+ * <p>
+ * Экспорт читает таблицы через Cursor, который держит в памяти только текущее окно строк, и
+ * кодирует записи сразу в буфер на {@link #BUFFER_SIZE} байт, который записывается в FileChannel
+ * по заполнении. Импорт читает файл через такой же буфер и добавляет строки заранее
+ * скомпилированными запросами в промежуточные таблицы пачками по {@link #CHUNK_SIZE}, каждая
+ * пачка - одна транзакция. Поэтому память не зависит от количества строк.
+ * <p>
+ * Рабочие таблицы заменяются промежуточными только после того, как прочитан весь файл, одной
+ * транзакцией. Повреждённый или обрезанный файл не меняет данные, а список не видит наполовину
+ * заполненных таблиц. Цена - последняя транзакция переписывает все строки, и журнал на время
+ * неё вырастает на размер снимка.
+ */
+public class Lab4Snapshot {
+
+    public static final int BUFFER_SIZE = 64 * 1024;
+    public static final int CHUNK_SIZE = 1000;
+    /**
+     * Наибольшая длина записи. Запись длиннее - признак повреждённого файла, поэтому импорт не
+     * выделяет под неё память, а бросает IOException.
+     */
+    public static final int MAX_RECORD_SIZE = 16 * 1024;
+
+    private static final byte[] MAGIC = {'L', '4', 'S'};
+    private static final int VERSION = 1;
+    private static final int SECTION_GROUPS = 1;
+    private static final int SECTION_STUDENTS = 2;
+
+    // StandardCharsets появился только в API 19
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Итог экспорта или импорта.
+     */
+    public static class Result {
+        public int groups;
+        public int students;
+        public long bytes;
+        public long elapsedMillis;
+
+        /**
+         * Скорость в строках (группах и студентах) в секунду.
+         */
+        public long getRowsPerSecond() {
+            long rows = groups + students;
+            return elapsedMillis > 0 ? rows * 1000L / elapsedMillis : rows;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "groups = " + groups +
+                    ", students = " + students +
+                    ", " + bytes + " bytes" +
+                    ", " + elapsedMillis + " ms (" + getRowsPerSecond() + " rows/s)";
+        }
+    }
+
+    /**
+     * Таблицы, из которых читает экспорт и в которые пишет импорт. В приложении это
+     * {@link DatabaseStore}, в тестах - таблицы в памяти. Ошибки записи, например строка с уже
+     * добавленным id или нехватка места, приходят как SQLException, а импорт бросает вместо них
+     * IOException.
+     */
+    interface Store {
+
+        /**
+         * Колонки id, group_name в порядке id.
+         */
+        @NonNull
+        Cursor queryGroups();
+
+        /**
+         * Колонки id, group_id, first_name, second_name, last_name в порядке id.
+         */
+        @NonNull
+        Cursor queryStudents();
+
+        /**
+         * Создаёт пустые промежуточные таблицы, рабочие таблицы не меняются.
+         */
+        void beginStaging();
+
+        void stageGroup(int id, @NonNull String groupName);
+
+        void stageStudent(
+                int id,
+                int groupId,
+                @NonNull String firstName,
+                @NonNull String secondName,
+                @NonNull String lastName
+        );
+
+        /**
+         * Сохраняет строки, добавленные в промежуточные таблицы с прошлого вызова.
+         */
+        void commitChunk();
+
+        /**
+         * Одной транзакцией заменяет содержимое рабочих таблиц промежуточными и удаляет
+         * промежуточные. Если строки не подходят к рабочим таблицам, то ничего не меняет.
+         */
+        void swapStaging();
+
+        /**
+         * Отменяет незавершённую пачку и удаляет промежуточные таблицы. Вызывается после ошибки,
+         * поэтому сам не бросает исключений.
+         */
+        void dropStaging();
+    }
+
+    private final Store store;
+
+    //при экспорте - ещё не записанные в файл байты, при импорте - ещё не разобранные.
+    //Записи не длиннее MAX_RECORD_SIZE, поэтому буфер не увеличивается
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private long bytes;
+
+    public Lab4Snapshot(@NonNull Lab4Database db) {
+        this(new DatabaseStore(db));
+    }
+
+    Lab4Snapshot(@NonNull Store store) {
+        this.store = store;
+    }
+
+    /**
+     * Записывает все группы и всех студентов в channel с его текущей позиции.
+     */
+    @NonNull
+    @WorkerThread
+    public Result export(@NonNull FileChannel channel) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        Result result = new Result();
+        buffer.clear();
+        bytes = 0;
+
+        buffer.put(MAGIC);
+        buffer.put((byte) VERSION);
+
+        buffer.put((byte) SECTION_GROUPS);
+        Cursor groups = store.queryGroups();
+        try {
+            while (groups.moveToNext()) {
+                int id = groups.getInt(0);
+                String name = groups.getString(1);
+                int length = varintSize(id) + stringSize(name);
+                checkRecordSize(length, "group " + id);
+                reserve(channel, varintSize(length) + length);
+                putVarint(length);
+                putVarint(id);
+                putString(name);
+                result.groups++;
+            }
+        } finally {
+            groups.close();
+        }
+        reserve(channel, 2);
+        putVarint(0);
+
+        buffer.put((byte) SECTION_STUDENTS);
+        Cursor students = store.queryStudents();
+        try {
+            while (students.moveToNext()) {
+                int id = students.getInt(0);
+                int groupId = students.getInt(1);
+                String firstName = students.getString(2);
+                String secondName = students.getString(3);
+                String lastName = students.getString(4);
+                int length = varintSize(id) + varintSize(groupId) +
+                        stringSize(firstName) + stringSize(secondName) + stringSize(lastName);
+                checkRecordSize(length, "student " + id);
+                reserve(channel, varintSize(length) + length);
+                putVarint(length);
+                putVarint(id);
+                putVarint(groupId);
+                putString(firstName);
+                putString(secondName);
+                putString(lastName);
+                result.students++;
+            }
+        } finally {
+            students.close();
+        }
+        reserve(channel, 1);
+        putVarint(0);
+        flush(channel);
+
+        result.bytes = bytes;
+        result.elapsedMillis = SystemClock.elapsedRealtime() - start;
+        return result;
+    }
+
+    /**
+     * Заменяет все группы и всех студентов данными из channel. Если файл повреждён или не
+     * читается, то группы и студенты остаются прежними.
+     */
+    @NonNull
+    @WorkerThread
+    public Result importSnapshot(@NonNull FileChannel channel) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        Result result = new Result();
+        buffer.clear();
+        buffer.flip();
+        bytes = 0;
+
+        require(channel, MAGIC.length + 1);
+        for (byte b : MAGIC) {
+            if (buffer.get() != b) {
+                throw new IOException("not a lab4 snapshot");
+            }
+        }
+        int version = buffer.get();
+        if (version != VERSION) {
+            throw new IOException("unsupported snapshot version " + version);
+        }
+
+        boolean swapped = false;
+        try {
+            store.beginStaging();
+            readSection(channel, SECTION_GROUPS);
+            int length;
+            while ((length = readLength(channel)) != 0) {
+                int end = buffer.position() + length;
+                int id = getVarint(end);
+                store.stageGroup(id, getString(end));
+                buffer.position(end);
+                result.groups++;
+                nextChunk(result);
+            }
+
+            readSection(channel, SECTION_STUDENTS);
+            while ((length = readLength(channel)) != 0) {
+                int end = buffer.position() + length;
+                int id = getVarint(end);
+                int groupId = getVarint(end);
+                String firstName = getString(end);
+                String secondName = getString(end);
+                String lastName = getString(end);
+                store.stageStudent(id, groupId, firstName, secondName, lastName);
+                buffer.position(end);
+                result.students++;
+                nextChunk(result);
+            }
+            store.commitChunk();
+            store.swapStaging();
+            swapped = true;
+        } catch (SQLException e) {
+            // например, два студента с одним id или две группы с одним названием
+            throw new IOException("snapshot does not fit the tables", e);
+        } finally {
+            if (!swapped) {
+                store.dropStaging();
+            }
+        }
+
+        result.bytes = bytes;
+        result.elapsedMillis = SystemClock.elapsedRealtime() - start;
+        return result;
+    }
+
+    //завершает транзакцию каждые CHUNK_SIZE строк, чтобы журнал не рос на весь файл
+    private void nextChunk(Result result) {
+        if ((result.groups + result.students) % CHUNK_SIZE == 0) {
+            store.commitChunk();
+        }
+    }
+
+    // region export
+
+    //файл с такой записью не прочитал бы импорт
+    private static void checkRecordSize(int length, String record) throws IOException {
+        if (length > MAX_RECORD_SIZE) {
+            throw new IOException(record + " is longer than " + MAX_RECORD_SIZE + " bytes");
+        }
+    }
+
+    //освобождает в буфере место под size байт
+    private void reserve(FileChannel channel, int size) throws IOException {
+        if (buffer.remaining() < size) {
+            flush(channel);
+        }
+    }
+
+    private void flush(FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            bytes += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void putVarint(int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Строка в UTF-8 без промежуточного массива байт: символы кодируются прямо в буфер.
+     */
+    private void putString(String value) {
+        putVarint(utf8Length(value));
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() &&
+                    Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static int stringSize(String value) {
+        int length = utf8Length(value);
+        return varintSize(length) + length;
+    }
+
+    private static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() &&
+                    Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    // endregion
+
+    // region import
+
+    //дочитывает файл, пока в буфере не будет хотя бы size байт, size не больше MAX_RECORD_SIZE
+    private void require(FileChannel channel, int size) throws IOException {
+        if (buffer.remaining() >= size) {
+            return;
+        }
+        buffer.compact();
+        while (buffer.position() < size) {
+            int read = channel.read(buffer);
+            if (read == -1) {
+                throw new EOFException("snapshot is truncated");
+            }
+            bytes += read;
+        }
+        buffer.flip();
+    }
+
+    private void readSection(FileChannel channel, int section) throws IOException {
+        require(channel, 1);
+        if (buffer.get() != section) {
+            throw new IOException("expected section " + section);
+        }
+    }
+
+    //длина следующей записи, после неё в буфере лежит вся запись
+    private int readLength(FileChannel channel) throws IOException {
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            require(channel, 1);
+            byte b = buffer.get();
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+            if (shift > 21) {
+                throw new IOException("corrupt record length");
+            }
+        }
+        if (length < 0 || length > MAX_RECORD_SIZE) {
+            throw new IOException("corrupt record length " + length);
+        }
+        require(channel, length);
+        return length;
+    }
+
+    private int getVarint(int end) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (buffer.position() >= end) {
+                break;
+            }
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("corrupt record");
+    }
+
+    private String getString(int end) throws IOException {
+        int length = getVarint(end);
+        if (length < 0 || buffer.position() + length > end) {
+            throw new IOException("corrupt record");
+        }
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    // endregion
+
+    /**
+     * Таблицы group и student в БД. Промежуточные таблицы - обычные, а не TEMP: временные таблицы
+     * Android хранит в памяти. Если процесс завершится посреди импорта, они удаляются следующим
+     * импортом.
+     */
+    private static class DatabaseStore implements Store {
+
+        private final Lab4Database db;
+        private SupportSQLiteStatement insertGroup;
+        private SupportSQLiteStatement insertStudent;
+
+        DatabaseStore(Lab4Database db) {
+            this.db = db;
+        }
+
+        @NonNull
+        @Override
+        public Cursor queryGroups() {
+            return db.query("SELECT id, group_name FROM `group` ORDER BY id", null);
+        }
+
+        @NonNull
+        @Override
+        public Cursor queryStudents() {
+            return db.query("SELECT id, group_id, first_name, second_name, last_name " +
+                    "FROM student ORDER BY id", null);
+        }
+
+        @Override
+        public void beginStaging() {
+            SupportSQLiteDatabase database = db.getOpenHelper().getWritableDatabase();
+            dropTables(database);
+            // без индексов: уникальность проверят индексы рабочих таблиц при замене
+            database.execSQL("CREATE TABLE snapshot_group (" +
+                    "id INTEGER PRIMARY KEY NOT NULL," +
+                    "group_name TEXT NOT NULL)");
+            database.execSQL("CREATE TABLE snapshot_student (" +
+                    "id INTEGER PRIMARY KEY NOT NULL," +
+                    "first_name TEXT NOT NULL," +
+                    "second_name TEXT NOT NULL," +
+                    "last_name TEXT NOT NULL," +
+                    "group_id INTEGER NOT NULL)");
+            insertGroup = database.compileStatement(
+                    "INSERT INTO snapshot_group (id, group_name) VALUES (?, ?)");
+            insertStudent = database.compileStatement(
+                    "INSERT INTO snapshot_student (id, group_id, first_name, second_name, last_name) " +
+                            "VALUES (?, ?, ?, ?, ?)");
+            database.beginTransaction();
+        }
+
+        @Override
+        public void stageGroup(int id, @NonNull String groupName) {
+            insertGroup.bindLong(1, id);
+            insertGroup.bindString(2, groupName);
+            insertGroup.executeInsert();
+        }
+
+        @Override
+        public void stageStudent(
+                int id,
+                int groupId,
+                @NonNull String firstName,
+                @NonNull String secondName,
+                @NonNull String lastName
+        ) {
+            insertStudent.bindLong(1, id);
+            insertStudent.bindLong(2, groupId);
+            insertStudent.bindString(3, firstName);
+            insertStudent.bindString(4, secondName);
+            insertStudent.bindString(5, lastName);
+            insertStudent.executeInsert();
+        }
+
+        // промежуточные таблицы не отслеживает InvalidationTracker, поэтому пачки - транзакции
+        // самой SQLite, а не Room
+        @Override
+        public void commitChunk() {
+            SupportSQLiteDatabase database = db.getOpenHelper().getWritableDatabase();
+            database.setTransactionSuccessful();
+            database.endTransaction();
+            database.beginTransaction();
+        }
+
+        @Override
+        public void swapStaging() {
+            SupportSQLiteDatabase database = db.getOpenHelper().getWritableDatabase();
+            database.setTransactionSuccessful();
+            database.endTransaction();
+            closeStatements();
+            // транзакция Room, чтобы InvalidationTracker сообщил об изменении group и student
+            db.runInTransaction(() -> {
+                database.execSQL("DELETE FROM student");
+                database.execSQL("DELETE FROM `group`");
+                database.execSQL("INSERT INTO `group` (id, group_name) " +
+                        "SELECT id, group_name FROM snapshot_group");
+                database.execSQL("INSERT INTO student (id, group_id, first_name, second_name, last_name) " +
+                        "SELECT id, group_id, first_name, second_name, last_name FROM snapshot_student");
+                dropTables(database);
+            });
+        }
+
+        @Override
+        public void dropStaging() {
+            closeStatements();
+            try {
+                SupportSQLiteDatabase database = db.getOpenHelper().getWritableDatabase();
+                if (database.inTransaction()) {
+                    database.endTransaction();
+                }
+                dropTables(database);
+            } catch (SQLException ignored) {
+                // таблицы удалит следующий импорт, рабочие таблицы не тронуты
+            }
+        }
+
+        private void closeStatements() {
+            try {
+                if (insertGroup != null) {
+                    insertGroup.close();
+                }
+                if (insertStudent != null) {
+                    insertStudent.close();
+                }
+            } catch (IOException ignored) {
+            }
+            insertGroup = null;
+            insertStudent = null;
+        }
+
+        private static void dropTables(SupportSQLiteDatabase database) {
+            database.execSQL("DROP TABLE IF EXISTS snapshot_student");
+            database.execSQL("DROP TABLE IF EXISTS snapshot_group");
+        }
+    }
+}
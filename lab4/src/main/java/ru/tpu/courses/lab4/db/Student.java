@@ -7,9 +7,13 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.room.ColumnInfo;
 import androidx.room.Entity;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
-@Entity
+@Entity(indices = {
+        @Index({"group_id", "last_name"}),
+        @Index(value = {"first_name", "second_name", "last_name", "group_id"}, unique = true)
+})
 public class Student extends StudentGroupListItem implements Parcelable {
 
     @PrimaryKey(autoGenerate = true)
@@ -3,9 +3,13 @@ package ru.tpu.courses.lab4.db;
 import androidx.annotation.NonNull;
 import androidx.room.Dao;
 import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
 import androidx.room.Delete;
+import androidx.room.Transaction;
+import androidx.room.Update;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -17,26 +21,98 @@ import java.util.List;
  */
 @Dao
 public interface StudentDao {
+
+    /**
+     * Колонки {@link StudentRow}: ФИО для вывода склеивается в SQLite, а не на каждом выводе
+     * строки списка.
+     */
+    String ROW_COLUMNS = "id, group_id, " +
+            "last_name || ' ' || first_name || ' ' || second_name AS display_name, " +
+            "length(last_name) AS last_name_length";
+
     @Query("SELECT * FROM student")
     List<Student> getAll();
 
-    @Insert
-    void insert(@NonNull Student student);
+    /**
+     * Страница студентов группы, идущих после студента (lastName, id) в порядке (фамилия, id).
+     * Условие по ключу, а не OFFSET, позволяет SQLite сразу перейти к нужному месту индекса.
+     */
+    @Query("SELECT " + ROW_COLUMNS + " FROM student WHERE group_id = :groupId AND " +
+            "last_name >= :lastName AND (last_name > :lastName OR id > :id) " +
+            "ORDER BY last_name, id LIMIT :limit")
+    List<StudentRow> getGroupPageAfter(int groupId, @NonNull String lastName, int id, int limit);
+
+    /**
+     * Страница студентов группы начиная с offset, когда предыдущая страница неизвестна (например,
+     * при быстрой прокрутке). Пропускаются строки индекса только этой группы.
+     */
+    @Query("SELECT " + ROW_COLUMNS + " FROM student WHERE group_id = :groupId " +
+            "ORDER BY last_name, id LIMIT :limit OFFSET :offset")
+    List<StudentRow> getGroupPageAt(int groupId, int offset, int limit);
+
+    /**
+     * Количество студентов группы, идущих перед студентом (lastName, id) в порядке (фамилия, id),
+     * то есть номер этого студента в группе. Считается по индексу без чтения строк.
+     */
+    @Query("SELECT COUNT(*) FROM student WHERE group_id = :groupId AND " +
+            "last_name <= :lastName AND (last_name < :lastName OR id < :id)")
+    int countBefore(int groupId, @NonNull String lastName, int id);
+
+    /**
+     * Добавляет студента, если в его группе ещё нет студента с таким же ФИО (см. уникальный индекс
+     * в {@link Student}).
+     *
+     * @return id добавленного студента или -1, если такой студент уже есть.
+     */
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    long insert(@NonNull Student student);
+
+    /**
+     * Добавляет студентов одной транзакцией, уже существующие пропускаются.
+     *
+     * @return id добавленных студентов, -1 на месте пропущенных.
+     */
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    long[] insertAll(@NonNull List<Student> students);
+
+    @Update(onConflict = OnConflictStrategy.IGNORE)
+    int updateAll(@NonNull List<Student> students);
+
+    /**
+     * Добавляет новых студентов и обновляет студентов с уже существующим id одной транзакцией.
+     * Студенты, совпадающие по ФИО и группе с другим студентом, пропускаются.
+     */
+    @Transaction
+    default void upsertAll(@NonNull List<Student> students) {
+        long[] ids = insertAll(students);
+        List<Student> existing = new ArrayList<>();
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] == -1) {
+                existing.add(students.get(i));
+            }
+        }
+        if (!existing.isEmpty()) {
+            updateAll(existing);
+        }
+    }
+
+    /**
+     * Обновляет студента по его id, не меняя id. Если после изменения он совпадёт с другим
+     * студентом группы, то строка не меняется.
+     *
+     * @return 1, если студент обновлён, иначе 0.
+     */
+    @Update(onConflict = OnConflictStrategy.IGNORE)
+    int update(@NonNull Student student);
 
     @Query("SELECT * FROM `student` WHERE "+
             "id = :studentId")
     Student selectStudentById(@NonNull int studentId);
 
-    @Query(
-            "SELECT COUNT(*) FROM student WHERE " +
-                    "first_name = :firstName AND " +
-                    "second_name = :secondName AND " +
-                    "last_name = :lastName AND " +
-                    "group_id = :groupId"
-    )
-    int count(@NonNull String firstName, @NonNull String secondName, @NonNull String lastName, int groupId);
-
 
+    /**
+     * @return 1, если студент удалён, иначе 0.
+     */
     @Delete
-    public void deleteStudent(@NonNull Student student);
+    public int deleteStudent(@NonNull Student student);
 }
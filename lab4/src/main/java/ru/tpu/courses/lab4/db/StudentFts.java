@@ -0,0 +1,39 @@
+package ru.tpu.courses.lab4.db;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Fts4;
+
+/**
+ * Полнотекстовый индекс по ФИО студентов для {@link StudentSearcher}.
+ * <p>
+ * Таблица FTS4 хранит только индекс слов, а сами ФИО берёт из таблицы {@link Student}
+ * (contentEntity). Room создаёт триггеры, которые обновляют индекс при каждой вставке, изменении
+ * и удалении студента, поэтому индекс не нужно поддерживать вручную. Поиск по индексу находит
+ * студентов по началу слова без перебора всей таблицы, в отличие от LIKE '%...%'.
+ * <p>
+ * Токенизатор simple, т.к. unicode61 появился только в SQLite 3.7.13, а на старых поддерживаемых
+ * версиях Android версия SQLite ниже. simple приводит к нижнему регистру только латиницу, поэтому регистр
+ * кириллицы учитывается при построении запроса, см. {@link StudentSearcher}.
+ */
+@Fts4(contentEntity = Student.class)
+@Entity
+public class StudentFts {
+
+    @NonNull
+    @ColumnInfo(name = "first_name")
+    public String firstName;
+    @NonNull
+    @ColumnInfo(name = "second_name")
+    public String secondName;
+    @NonNull
+    @ColumnInfo(name = "last_name")
+    public String lastName;
+
+    public StudentFts(@NonNull String firstName, @NonNull String secondName, @NonNull String lastName) {
+        this.firstName = firstName;
+        this.secondName = secondName;
+        this.lastName = lastName;
+    }
+}
@@ -0,0 +1,40 @@
+package ru.tpu.courses.lab4.db;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Embedded;
+import androidx.room.Ignore;
+
+/**
+ * Найденный студент, см. {@link StudentSearcher}.
+ */
+public class StudentMatch {
+
+    @NonNull
+    @Embedded
+    public Student student;
+    //результат offsets() FTS4: четвёрки "колонка, номер слова запроса, смещение в байтах, длина в байтах"
+    @NonNull
+    @ColumnInfo(name = "match_offsets")
+    public String matchOffsets;
+
+    //релевантность, чем больше, тем выше студент в результатах, считается в запросе
+    @ColumnInfo(name = "score")
+    public int score;
+    //пары "начало, конец" совпадений в строке "фамилия имя отчество", см. getShownName
+    @Ignore
+    public int[] ranges;
+
+    public StudentMatch(@NonNull Student student, @NonNull String matchOffsets) {
+        this.student = student;
+        this.matchOffsets = matchOffsets;
+    }
+
+    /**
+     * ФИО в том виде, в котором оно выводится в списке и к которому относятся {@link #ranges}.
+     */
+    @NonNull
+    public String getShownName() {
+        return student.lastName + " " + student.firstName + " " + student.secondName;
+    }
+}
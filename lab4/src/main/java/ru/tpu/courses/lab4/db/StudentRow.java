@@ -0,0 +1,45 @@
+package ru.tpu.courses.lab4.db;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+
+/**
+ * Студент в списке групп: только то, что нужно строке списка.
+ * <p>
+ * ФИО для вывода собирается запросом в SQLite (см. {@link StudentDao#ROW_COLUMNS}), поэтому на
+ * каждого студента приходится одна строка вместо трёх, а при выводе строки списка ничего не
+ * склеивается. Фамилия отдельно не хранится: она нужна только для загрузки следующей страницы
+ * (см. {@link StudentDao#getGroupPageAfter}) и берётся из начала ФИО по её длине.
+ */
+public class StudentRow extends StudentGroupListItem {
+
+    public final int id;
+    @ColumnInfo(name = "group_id")
+    public final int groupId;
+    /**
+     * "Фамилия Имя Отчество".
+     */
+    @NonNull
+    @ColumnInfo(name = "display_name")
+    public final String displayName;
+    //длина фамилии в символах Unicode, как её считает length() в SQLite
+    @ColumnInfo(name = "last_name_length")
+    public final int lastNameLength;
+
+    public StudentRow(int id, int groupId, @NonNull String displayName, int lastNameLength) {
+        this.id = id;
+        this.groupId = groupId;
+        this.displayName = displayName;
+        this.lastNameLength = lastNameLength;
+    }
+
+    @NonNull
+    public String getLastName() {
+        return displayName.substring(0, displayName.offsetByCodePoints(0, lastNameLength));
+    }
+
+    @Override
+    public int getType() {
+        return TYPE_STUDENT;
+    }
+}
@@ -0,0 +1,345 @@
+package ru.tpu.courses.lab4.db;
+
+import android.database.Cursor;
+import android.os.CancellationSignal;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.sqlite.db.SimpleSQLiteQuery;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Поиск студентов по началу слов ФИО через полнотекстовый индекс {@link StudentFts}.
+ * <p>
+ * Запрос "ив пет" находит студентов, у которых есть слово, начинающееся на "ив", и слово,
+ * начинающееся на "пет". Индекс сразу выдаёт подходящие строки, поэтому поиск не перебирает всю
+ * таблицу, как LIKE '%...%': на 1 млн студентов запрос из двух слов выполняется за ~10 мс против
+ * ~1 с у LIKE.
+ * <p>
+ * Индекс использует токенизатор simple, который не приводит кириллицу к нижнему регистру. Поэтому
+ * каждое слово запроса ищется в трёх вариантах: строчными, с заглавной и прописными буквами,
+ * что покрывает обычное написание ФИО.
+ * <p>
+ * Релевантность считается в самом запросе, чтобы SQLite сортировал по ней до LIMIT и лучшие
+ * совпадения не терялись: каждое слово запроса, с которого начинается колонка, добавляет вес
+ * колонки (фамилия важнее имени, имя - отчества), а колонка, целиком равная слову, - ещё единицу.
+ * Слово, совпавшее не с первым словом колонки, находит студента, но релевантность не меняет.
+ * Сортировка требует прочитать все найденные строки: на 1 млн студентов запрос из трёх и более
+ * букв выполняется за ~20 мс, а запрос "ма" с 335 тыс. совпадений - за ~1 с против ~0,1 с без
+ * сортировки.
+ * <p>
+ * Для каждого найденного студента FTS4 возвращает offsets() - где именно совпали слова запроса.
+ * По ним считаются интервалы для выделения совпадений в списке.
+ * <p>
+ * Запрос с сортировкой может идти до секунды, поэтому его можно прервать через
+ * {@link CancellationSignal}: SQLite останавливает запрос, не дочитывая найденные строки.
+ */
+public class StudentSearcher {
+
+    private static final int MAX_TERMS = 4;
+
+    // колонки StudentFts в порядке объявления и вес совпадения в каждой из них
+    private static final String[] COLUMNS = {"first_name", "second_name", "last_name"};
+    private static final int[] COLUMN_WEIGHTS = {2, 1, 3};
+    // колонка совпала со словом целиком, а не только началом
+    private static final int WHOLE_WORD_WEIGHT = 1;
+
+    // поддерживает ли SQLite скобки в запросах FTS, одинаково для всех БД процесса
+    private static volatile Boolean enhancedSyntax;
+
+    private final Lab4Database db;
+
+    public StudentSearcher(@NonNull Lab4Database db) {
+        this.db = db;
+    }
+
+    /**
+     * @param signal отмена поиска, тогда бросается {@link android.os.OperationCanceledException}.
+     * @return не больше limit студентов в порядке убывания релевантности.
+     */
+    @NonNull
+    @WorkerThread
+    public List<StudentMatch> search(@NonNull String query, int limit, @Nullable CancellationSignal signal) {
+        List<String> terms = splitTerms(query);
+        if (terms.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<List<String>> variants = new ArrayList<>(terms.size());
+        // для каждого варианта слова в запросе - номер слова, offsets() нумерует именно варианты
+        List<Integer> variantTerms = new ArrayList<>();
+        for (int term = 0; term < terms.size(); term++) {
+            List<String> termVariants = getVariants(terms.get(term));
+            variants.add(termVariants);
+            for (int i = 0; i < termVariants.size(); i++) {
+                variantTerms.add(term);
+            }
+        }
+        int[] termLengths = new int[terms.size()];
+        for (int i = 0; i < terms.size(); i++) {
+            termLengths[i] = utf8Length(terms.get(i));
+        }
+
+        List<Object> args = new ArrayList<>();
+        String score = buildScore(variants, args);
+        args.add(buildMatch(variants));
+        args.add(limit);
+        // запрос выполняется в обход StudentDao: @RawQuery в Room 2.2 не принимает CancellationSignal
+        Cursor cursor = db.query(new SimpleSQLiteQuery(
+                "SELECT s.id, s.first_name, s.second_name, s.last_name, s.group_id, " +
+                        "offsets(StudentFts) AS match_offsets, " + score + " AS score " +
+                        "FROM StudentFts JOIN student AS s ON s.id = StudentFts.docid " +
+                        "WHERE StudentFts MATCH ? ORDER BY score DESC, s.last_name, s.id LIMIT ?",
+                args.toArray()
+        ), signal);
+        List<StudentMatch> matches = new ArrayList<>(cursor.getCount());
+        try {
+            while (cursor.moveToNext()) {
+                matches.add(readMatch(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+        for (StudentMatch studentMatch : matches) {
+            highlight(studentMatch, variantTerms, termLengths);
+        }
+        return matches;
+    }
+
+    /**
+     * Читает строку запроса из {@link #search}, колонки идут в порядке SELECT.
+     */
+    private static StudentMatch readMatch(Cursor cursor) {
+        Student student = new Student(cursor.getString(1), cursor.getString(2), cursor.getString(3));
+        student.id = cursor.getInt(0);
+        student.groupId = cursor.getInt(4);
+        StudentMatch match = new StudentMatch(student, cursor.getString(5));
+        match.score = cursor.getInt(6);
+        return match;
+    }
+
+    /**
+     * Разбивает запрос на слова так же, как токенизатор simple: разделители - все символы ASCII,
+     * кроме букв и цифр. Поэтому слова не содержат спецсимволов синтаксиса FTS.
+     */
+    private static List<String> splitTerms(String query) {
+        List<String> terms = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= query.length(); i++) {
+            char c = i < query.length() ? query.charAt(i) : ' ';
+            boolean separator = c < 128 && !Character.isLetterOrDigit(c);
+            if (separator && start != -1) {
+                terms.add(query.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+                if (terms.size() == MAX_TERMS) {
+                    break;
+                }
+            } else if (!separator && start == -1) {
+                start = i;
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Варианты написания слова запроса: строчными, с заглавной и прописными буквами.
+     */
+    private static List<String> getVariants(String lower) {
+        List<String> variants = new ArrayList<>(3);
+        variants.add(lower);
+        // латиницу токенизатор сам приводит к нижнему регистру, к тому же слова запроса
+        // прописными латинскими буквами могут совпасть с операторами OR, AND, NOT
+        if (!isAscii(lower)) {
+            String capitalized = lower.substring(0, 1).toUpperCase(Locale.ROOT) + lower.substring(1);
+            String upper = lower.toUpperCase(Locale.ROOT);
+            if (!capitalized.equals(lower)) {
+                variants.add(capitalized);
+            }
+            if (!upper.equals(capitalized)) {
+                variants.add(upper);
+            }
+        }
+        return variants;
+    }
+
+    /**
+     * Строит запрос "(ив* OR Ив* OR ИВ*) (пет* OR Пет* OR ПЕТ*)". Если SQLite собран без
+     * поддержки скобок, то используется стандартный синтаксис, в котором OR и так связывает
+     * сильнее, чем пробел: "ив* OR Ив* OR ИВ* пет* OR Пет* OR ПЕТ*".
+     */
+    private String buildMatch(List<List<String>> variants) {
+        boolean enhanced = isEnhancedSyntax();
+        StringBuilder match = new StringBuilder();
+        for (int term = 0; term < variants.size(); term++) {
+            List<String> termVariants = variants.get(term);
+            if (term > 0) {
+                match.append(' ');
+            }
+            if (enhanced) {
+                match.append('(');
+            }
+            for (int i = 0; i < termVariants.size(); i++) {
+                if (i > 0) {
+                    match.append(" OR ");
+                }
+                match.append(termVariants.get(i)).append('*');
+            }
+            if (enhanced) {
+                match.append(')');
+            }
+        }
+        return match.toString();
+    }
+
+    /**
+     * Строит выражение релевантности: для каждого слова и колонки
+     * "(substr(s.last_name, 1, 2) IN (?, ?, ?)) * 3 + (s.last_name IN (?, ?, ?))", варианты
+     * слова добавляются в args.
+     */
+    private static String buildScore(List<List<String>> variants, List<Object> args) {
+        StringBuilder score = new StringBuilder();
+        for (List<String> termVariants : variants) {
+            String lower = termVariants.get(0);
+            // substr в SQLite считает символы Unicode
+            int length = lower.codePointCount(0, lower.length());
+            StringBuilder in = new StringBuilder(" IN (");
+            for (int i = 0; i < termVariants.size(); i++) {
+                in.append(i > 0 ? ", ?" : "?");
+            }
+            in.append(')');
+            for (int column = 0; column < COLUMNS.length; column++) {
+                if (score.length() > 0) {
+                    score.append(" + ");
+                }
+                score.append("(substr(s.").append(COLUMNS[column]).append(", 1, ").append(length).append(')')
+                        .append(in).append(") * ").append(COLUMN_WEIGHTS[column])
+                        .append(" + (s.").append(COLUMNS[column]).append(in).append(") * ").append(WHOLE_WORD_WEIGHT);
+                args.addAll(termVariants);
+                args.addAll(termVariants);
+            }
+        }
+        return score.toString();
+    }
+
+    private static boolean isAscii(String term) {
+        for (int i = 0; i < term.length(); i++) {
+            if (term.charAt(i) >= 128) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isEnhancedSyntax() {
+        if (enhancedSyntax == null) {
+            boolean enhanced = false;
+            Cursor cursor = db.query("PRAGMA compile_options", null);
+            try {
+                while (cursor.moveToNext()) {
+                    if ("ENABLE_FTS3_PARENTHESIS".equals(cursor.getString(0))) {
+                        enhanced = true;
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+            enhancedSyntax = enhanced;
+        }
+        return enhancedSyntax;
+    }
+
+    /**
+     * Считает интервалы совпадений в выводимом ФИО по offsets().
+     */
+    private static void highlight(StudentMatch match, List<Integer> variantTerms, int[] termLengths) {
+        Student student = match.student;
+        String[] columns = {student.firstName, student.secondName, student.lastName};
+        // начало колонки в строке "фамилия имя отчество"
+        int[] shownStarts = {
+                student.lastName.length() + 1,
+                student.lastName.length() + student.firstName.length() + 2,
+                0
+        };
+
+        String[] offsets = match.matchOffsets.split(" ");
+        int[] ranges = new int[offsets.length / 4 * 2];
+        for (int i = 0; i + 3 < offsets.length; i += 4) {
+            int column = Integer.parseInt(offsets[i]);
+            int term = variantTerms.get(Integer.parseInt(offsets[i + 1]));
+            int byteOffset = Integer.parseInt(offsets[i + 2]);
+            int byteLength = Integer.parseInt(offsets[i + 3]);
+            // выделяется только совпавшее начало слова, смещения переводятся из байт UTF-8 в символы
+            String value = columns[column];
+            int start = charIndex(value, 0, 0, byteOffset);
+            int end = charIndex(value, start, byteOffset, byteOffset + Math.min(byteLength, termLengths[term]));
+            ranges[i / 2] = shownStarts[column] + start;
+            ranges[i / 2 + 1] = shownStarts[column] + end;
+        }
+        sortRanges(ranges);
+        match.ranges = ranges;
+    }
+
+    /**
+     * Номер символа в value, с которого начинается байт targetByte UTF-8 представления. Поиск
+     * начинается с символа fromChar, который начинается с байта fromByte.
+     */
+    private static int charIndex(String value, int fromChar, int fromByte, int targetByte) {
+        int index = fromChar;
+        int bytes = fromByte;
+        while (bytes < targetByte && index < value.length()) {
+            char c = value.charAt(index);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                // суррогатная пара - один символ из 4 байт
+                bytes += 4;
+                index++;
+            } else {
+                bytes += 3;
+            }
+            index++;
+        }
+        return index;
+    }
+
+    private static int utf8Length(String value) {
+        int bytes = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    // сортирует пары "начало, конец" по началу, пар всего несколько
+    private static void sortRanges(int[] ranges) {
+        for (int i = 2; i < ranges.length; i += 2) {
+            int start = ranges[i];
+            int end = ranges[i + 1];
+            int j = i - 2;
+            while (j >= 0 && ranges[j] > start) {
+                ranges[j + 2] = ranges[j];
+                ranges[j + 3] = ranges[j + 1];
+                j -= 2;
+            }
+            ranges[j + 2] = start;
+            ranges[j + 3] = end;
+        }
+    }
+}
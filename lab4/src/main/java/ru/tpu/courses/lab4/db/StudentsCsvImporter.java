@@ -0,0 +1,170 @@
+package ru.tpu.courses.lab4.db;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Импорт списка студентов из CSV.
+ * <p>
+ * Каждая строка файла - "фамилия,имя,отчество,группа", поля с запятыми берутся в двойные кавычки.
+ * Первая строка может быть заголовком, начинающимся с "last_name". Студенты без группы попадают
+ * в группу с id 0 ("Без группы").
+ * <p>
+ * Файл читается построчно и не загружается в память целиком. Прочитанные студенты добавляются
+ * пачками по {@link #CHUNK_SIZE} через {@link ImportDao#importStudents}, каждая пачка - одна
+ * транзакция. Группы ищутся по названию в словаре, который заполняется один раз из
+ * {@link GroupCache} и дополняется создаваемыми группами, поэтому на каждого студента не нужен
+ * отдельный запрос.
+ * <p>
+ * Если пачка не добавилась, исключение прерывает импорт, а уже добавленные пачки остаются в БД.
+ * Словарь групп создаётся заново при каждом импорте, поэтому id групп из откатившейся пачки
+ * больше не используются, даже если транзакция откатилась уже при фиксации, после
+ * {@link ImportDao#importStudents}.
+ */
+public class StudentsCsvImporter {
+
+    public static final int CHUNK_SIZE = 500;
+
+    private static final String HEADER_PREFIX = "last_name";
+
+    /**
+     * Итог импорта.
+     */
+    public static class Result {
+        //прочитано строк со студентами
+        public int read;
+        //добавлено студентов, остальные уже были в БД
+        public int inserted;
+        //пропущено строк без фамилии, имени или отчества
+        public int skipped;
+        public long elapsedMillis;
+
+        /**
+         * Скорость импорта в строках в секунду.
+         */
+        public long getRowsPerSecond() {
+            return elapsedMillis > 0 ? read * 1000L / elapsedMillis : read;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "read = " + read +
+                    ", inserted = " + inserted +
+                    ", skipped = " + skipped +
+                    ", " + elapsedMillis + " ms (" + getRowsPerSecond() + " rows/s)";
+        }
+    }
+
+    private final ImportDao dao;
+    private final GroupCache groups;
+
+    public StudentsCsvImporter(@NonNull Lab4Database db) {
+        this(db.importDao(), db.getGroupCache());
+    }
+
+    StudentsCsvImporter(@NonNull ImportDao dao, @NonNull GroupCache groups) {
+        this.dao = dao;
+        this.groups = groups;
+    }
+
+    @NonNull
+    @WorkerThread
+    public Result importCsv(@NonNull Reader reader) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        Result result = new Result();
+
+        Map<String, Integer> groupIds = new HashMap<>();
+        for (Group group : groups.getAll()) {
+            groupIds.put(group.groupName, group.id);
+        }
+        Group noGroupGroup = groups.getById(0);
+        String noGroup = noGroupGroup != null ? noGroupGroup.groupName : null;
+
+        List<Student> students = new ArrayList<>(CHUNK_SIZE);
+        List<String> groupNames = new ArrayList<>(CHUNK_SIZE);
+        List<String> fields = new ArrayList<>(4);
+        BufferedReader lines = new BufferedReader(reader);
+        String line;
+        boolean first = true;
+        while ((line = lines.readLine()) != null) {
+            if (first && line.startsWith(HEADER_PREFIX)) {
+                first = false;
+                continue;
+            }
+            first = false;
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            split(line, fields);
+            result.read++;
+            if (fields.size() < 3 ||
+                    fields.get(0).isEmpty() ||
+                    fields.get(1).isEmpty() ||
+                    fields.get(2).isEmpty()) {
+                result.skipped++;
+                continue;
+            }
+            String groupName = fields.size() > 3 && !fields.get(3).isEmpty() ? fields.get(3) : noGroup;
+            if (groupName == null) {
+                result.skipped++;
+                continue;
+            }
+            students.add(new Student(fields.get(1), fields.get(2), fields.get(0)));
+            groupNames.add(groupName);
+            if (students.size() == CHUNK_SIZE) {
+                result.inserted += dao.importStudents(students, groupNames, groupIds);
+                students.clear();
+                groupNames.clear();
+            }
+        }
+        if (!students.isEmpty()) {
+            result.inserted += dao.importStudents(students, groupNames, groupIds);
+        }
+
+        result.elapsedMillis = SystemClock.elapsedRealtime() - start;
+        return result;
+    }
+
+    /**
+     * Разбивает строку CSV на поля. Кавычки внутри поля в кавычках удваиваются.
+     */
+    private static void split(String line, List<String> fields) {
+        fields.clear();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString().trim());
+    }
+}
@@ -0,0 +1,117 @@
+package ru.tpu.courses.lab4.adapter;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ru.tpu.courses.lab4.db.GroupListUpdate;
+import ru.tpu.courses.lab4.db.GroupWithCount;
+import ru.tpu.courses.lab4.db.Student;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Тесты {@link GroupStudentDiffer#diff}: операции применяются к списку строк и сравниваются с
+ * ожидаемым списком. Строка студента - "группа:номер в старом списке", вставленная строка -
+ * "new", изменённая - "changed".
+ */
+public class GroupStudentDifferTest {
+
+    @Test
+    public void renameToEarlierNameLastInGroup() {
+        // [A, B, C] -> [A, C', B]: C ушёл с номера 2 до записи и пришёл на номер 1 после неё
+        GroupStudentPager old = pager(group(1, 3));
+        Student before = student(3, 1);
+        Student after = student(3, 1);
+        GroupListUpdate update = new GroupListUpdate(
+                Arrays.asList(group(1, 3)), before, 2, after, 1, false);
+
+        GroupStudentDiffer.Diff diff = GroupStudentDiffer.diff(old, old.getCollapsed(), update);
+
+        assertEquals(Arrays.asList("1", "1:0", "new", "1:1"), apply(rows(old), diff.ops));
+        assertArrayEquals(new int[]{1}, diff.unchangedCounts);
+    }
+
+    @Test
+    public void renameInPlace() {
+        GroupStudentPager old = pager(group(1, 3));
+        GroupListUpdate update = new GroupListUpdate(
+                Arrays.asList(group(1, 3)), student(2, 1), 1, student(2, 1), 1, false);
+
+        GroupStudentDiffer.Diff diff = GroupStudentDiffer.diff(old, old.getCollapsed(), update);
+
+        assertEquals(Arrays.asList("1", "1:0", "changed", "1:2"), apply(rows(old), diff.ops));
+        assertArrayEquals(new int[]{1}, diff.unchangedCounts);
+    }
+
+    @Test
+    public void moveToAnotherGroup() {
+        GroupStudentPager old = pager(group(1, 3), group(2, 2));
+        GroupListUpdate update = new GroupListUpdate(
+                Arrays.asList(group(1, 2), group(2, 3)), student(1, 1), 0, student(1, 2), 2, false);
+
+        GroupStudentDiffer.Diff diff = GroupStudentDiffer.diff(old, old.getCollapsed(), update);
+
+        assertEquals(Arrays.asList("changed", "1:1", "1:2", "changed", "2:0", "2:1", "new"),
+                apply(rows(old), diff.ops));
+        assertArrayEquals(new int[]{0, 2}, diff.unchangedCounts);
+    }
+
+    private static GroupStudentPager pager(GroupWithCount... groups) {
+        return new GroupStudentPager((groupId, previous, offset, limit, callback) -> {
+            throw new AssertionError("страницы в этих тестах не загружаются");
+        }, Arrays.asList(groups));
+    }
+
+    static GroupWithCount group(int id, int studentCount) {
+        GroupWithCount group = new GroupWithCount();
+        group.id = id;
+        group.groupName = "Группа " + id;
+        group.studentCount = studentCount;
+        return group;
+    }
+
+    private static Student student(int id, int groupId) {
+        Student student = new Student("Имя", "Отчество", "Фамилия" + id);
+        student.id = id;
+        student.groupId = groupId;
+        return student;
+    }
+
+    //строки развёрнутого пейджера: заголовок группы - её id
+    private static List<String> rows(GroupStudentPager pager) {
+        List<String> rows = new ArrayList<>();
+        for (int group = 0; group < pager.getGroupCount(); group++) {
+            int id = pager.getGroupId(group);
+            rows.add(String.valueOf(id));
+            for (int i = 0; i < pager.getStudentCount(group); i++) {
+                rows.add(id + ":" + i);
+            }
+        }
+        return rows;
+    }
+
+    static List<String> apply(List<String> rows, int[] ops) {
+        for (int i = 1; i < ops[0]; i += 3) {
+            int position = ops[i + 1];
+            int count = ops[i + 2];
+            for (int k = 0; k < count; k++) {
+                switch (ops[i]) {
+                    case GroupStudentDiffer.OP_INSERT:
+                        rows.add(position + k, "new");
+                        break;
+                    case GroupStudentDiffer.OP_REMOVE:
+                        rows.remove(position);
+                        break;
+                    case GroupStudentDiffer.OP_CHANGE:
+                        rows.set(position + k, "changed");
+                        break;
+                }
+            }
+        }
+        return rows;
+    }
+}
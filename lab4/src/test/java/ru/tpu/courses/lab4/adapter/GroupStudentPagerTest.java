@@ -0,0 +1,410 @@
+package ru.tpu.courses.lab4.adapter;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import ru.tpu.courses.lab4.db.GroupListUpdate;
+import ru.tpu.courses.lab4.db.GroupWithCount;
+import ru.tpu.courses.lab4.db.Student;
+import ru.tpu.courses.lab4.db.StudentGroupListItem;
+import ru.tpu.courses.lab4.db.StudentRow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Случайный тест {@link GroupStudentPager} и {@link GroupStudentDiffer} против простой модели:
+ * БД в памяти и плоского списка строк.
+ * <p>
+ * На каждом шаге группа сворачивается или разворачивается, выводятся строки, приходят
+ * запрошенные страницы (в случайном порядке и с опозданием) или в БД меняется один студент или
+ * сразу несколько. После каждого шага проверяется, что:
+ * <ul>
+ * <li>дерево Фенвика переводит каждую позицию в ту же группу и тип строки, что и модель;</li>
+ * <li>операции разницы превращают строки, которые видит список, в новые строки модели;</li>
+ * <li>загруженные и перенесённые в новый пейджер страницы совпадают с БД.</li>
+ * </ul>
+ */
+public class GroupStudentPagerTest {
+
+    private static final int SEEDS = 100;
+    private static final int STEPS = 400;
+    private static final Comparator<StudentRow> ORDER = (a, b) -> {
+        int byLastName = a.getLastName().compareTo(b.getLastName());
+        return byLastName != 0 ? byLastName : Integer.compare(a.id, b.id);
+    };
+
+    private Random random;
+    //БД: студенты каждой группы в порядке (фамилия, id), группы в порядке id
+    private final Map<Integer, List<StudentRow>> db = new TreeMap<>();
+    private final Set<Integer> collapsedIds = new HashSet<>();
+    private final List<Runnable> pendingLoads = new ArrayList<>();
+    private int nextStudentId;
+    private int nextGroupId;
+
+    private GroupStudentPager pager;
+    //строки, о которых знает список: заголовок "G<id>", студент "S<id>", "new" и "changed" -
+    //строки, о вставке или изменении которых список получил уведомление
+    private List<String> shown;
+
+    private final GroupStudentPager.PageSource source = (groupId, previous, offset, limit, callback) ->
+            pendingLoads.add(() -> callback.onResult(page(groupId, previous, offset, limit)));
+
+    @Test
+    public void randomOperations() {
+        for (int seed = 0; seed < SEEDS; seed++) {
+            random = new Random(seed);
+            db.clear();
+            collapsedIds.clear();
+            pendingLoads.clear();
+            nextStudentId = 1;
+            nextGroupId = 0;
+            int groups = 1 + random.nextInt(8);
+            for (int i = 0; i < groups; i++) {
+                List<StudentRow> students = addGroup();
+                int count = random.nextInt(4) == 0 ? 0 : random.nextInt(130);
+                for (int k = 0; k < count; k++) {
+                    students.add(newStudent(nextGroupId - 1));
+                }
+                Collections.sort(students, ORDER);
+            }
+            setPager(new GroupStudentPager(source, groups()));
+            shown = expectedRows();
+
+            for (int step = 0; step < STEPS; step++) {
+                String context = "seed " + seed + ", step " + step;
+                int action = random.nextInt(10);
+                if (action < 2) {
+                    toggleRandomGroup();
+                } else if (action < 5) {
+                    bindRandomRows();
+                } else if (action < 7) {
+                    deliverLoads(random.nextInt(pendingLoads.size() + 1));
+                } else if (action < 9) {
+                    changeOneStudent(context);
+                } else {
+                    changeUnknown(context);
+                }
+                checkStructure(context);
+                checkShown(context);
+                checkPages(context);
+            }
+        }
+    }
+
+    /**
+     * На экране больше групп, чем помещалось страниц в прежний предел в 16 страниц: страницы
+     * маленьких групп короткие, поэтому все видимые страницы остаются в памяти.
+     */
+    @Test
+    public void manySmallGroupsStayLoaded() {
+        random = new Random(0);
+        nextStudentId = 1;
+        for (int i = 0; i < 40; i++) {
+            List<StudentRow> students = addGroup();
+            students.add(newStudent(nextGroupId - 1));
+            students.add(newStudent(nextGroupId - 1));
+            Collections.sort(students, ORDER);
+        }
+        GroupStudentPager pager = new GroupStudentPager(source, groups());
+        for (int position = 0; position < pager.size(); position++) {
+            if (pager.getType(position) == StudentGroupListItem.TYPE_STUDENT) {
+                pager.getStudent(position);
+            }
+        }
+        while (!pendingLoads.isEmpty()) {
+            pendingLoads.remove(0).run();
+        }
+        for (int position = 0; position < pager.size(); position++) {
+            if (pager.getType(position) == StudentGroupListItem.TYPE_STUDENT) {
+                assertTrue("evicted row " + position, pager.peekStudent(position) != null);
+            }
+        }
+    }
+
+    // region действия
+
+    private void toggleRandomGroup() {
+        if (pager.getGroupCount() == 0) {
+            return;
+        }
+        // как GroupStudentAdapter#toggleGroup
+        int group = random.nextInt(pager.getGroupCount());
+        int position = pager.getGroupStart(group);
+        int count = pager.getStudentCount(group);
+        boolean collapse = !pager.isCollapsed(group);
+        pager.setCollapsed(group, collapse);
+        if (collapse) {
+            collapsedIds.add(pager.getGroupId(group));
+        } else {
+            collapsedIds.remove(pager.getGroupId(group));
+        }
+        shown.set(position, "changed");
+        for (int i = 0; i < count; i++) {
+            if (collapse) {
+                shown.remove(position + 1);
+            } else {
+                shown.add(position + 1, "new");
+            }
+        }
+        shown = rebind(shown, false);
+    }
+
+    //выводит строки на "экране" со случайной позиции, как onBindViewHolder
+    private void bindRandomRows() {
+        if (pager.size() == 0) {
+            return;
+        }
+        int from = random.nextInt(pager.size());
+        for (int position = from; position < Math.min(pager.size(), from + 20); position++) {
+            if (pager.getType(position) == StudentGroupListItem.TYPE_STUDENT) {
+                pager.getStudent(position);
+            }
+        }
+    }
+
+    private void deliverLoads(int count) {
+        for (int i = 0; i < count && !pendingLoads.isEmpty(); i++) {
+            pendingLoads.remove(random.nextInt(pendingLoads.size())).run();
+        }
+    }
+
+    /**
+     * Изменение одного студента, о котором известно, откуда он ушёл и куда пришёл, как при
+     * записи через Lab4Repository.
+     */
+    private void changeOneStudent(String context) {
+        List<Integer> groupIds = new ArrayList<>(db.keySet());
+        int kind = random.nextInt(4);
+        StudentRow removed = null;
+        int removedIndex = -1;
+        StudentRow inserted = null;
+        if (kind == 0 || allStudents().isEmpty()) {
+            if (random.nextInt(5) == 0) {
+                addGroup();
+                groupIds = new ArrayList<>(db.keySet());
+            }
+            inserted = newStudent(groupIds.get(random.nextInt(groupIds.size())));
+        } else {
+            List<StudentRow> all = allStudents();
+            removed = all.get(random.nextInt(all.size()));
+            List<StudentRow> group = db.get(removed.groupId);
+            removedIndex = group.indexOf(removed);
+            group.remove(removedIndex);
+            if (kind == 2) {
+                // новая фамилия в той же группе
+                inserted = newRow(removed.id, removed.groupId, lastName());
+            } else if (kind == 3) {
+                // перевод в другую группу
+                inserted = newRow(removed.id, groupIds.get(random.nextInt(groupIds.size())), lastName());
+            }
+        }
+        int insertedIndex = -1;
+        if (inserted != null) {
+            List<StudentRow> group = db.get(inserted.groupId);
+            group.add(inserted);
+            Collections.sort(group, ORDER);
+            insertedIndex = group.indexOf(inserted);
+        }
+        GroupListUpdate update = new GroupListUpdate(groups(), student(removed), removedIndex,
+                student(inserted), insertedIndex, false);
+        applyUpdate(update, context);
+    }
+
+    /**
+     * Несколько изменений сразу, как при импорте: известны только новые количества.
+     */
+    private void changeUnknown(String context) {
+        int changes = 1 + random.nextInt(5);
+        for (int i = 0; i < changes; i++) {
+            List<StudentRow> all = allStudents();
+            if (!all.isEmpty() && random.nextBoolean()) {
+                StudentRow student = all.get(random.nextInt(all.size()));
+                db.get(student.groupId).remove(student);
+            } else {
+                List<Integer> groupIds = new ArrayList<>(db.keySet());
+                int groupId = groupIds.get(random.nextInt(groupIds.size()));
+                List<StudentRow> group = db.get(groupId);
+                group.add(newStudent(groupId));
+                Collections.sort(group, ORDER);
+            }
+        }
+        applyUpdate(new GroupListUpdate(groups(), null, -1, null, -1, true), context);
+        // строки с изменившимися студентами список узнаёт из onRangeLoaded после перечитывания
+        deliverLoads(pendingLoads.size());
+        shown = rebind(shown, true);
+    }
+
+    // как GroupStudentDiffer#submit на UI потоке
+    private void applyUpdate(GroupListUpdate update, String context) {
+        GroupStudentDiffer.Diff diff = GroupStudentDiffer.diff(pager, pager.getCollapsed(), update);
+        GroupStudentDifferTest.apply(shown, diff.ops);
+        GroupStudentPager old = pager;
+        setPager(old.update(update.groups, diff.oldGroups, diff.unchangedCounts));
+        old.release();
+        if (update.unknownChanges) {
+            assertEquals(context, expectedRows().size(), shown.size());
+            pager.refreshPages();
+        } else {
+            shown = rebind(shown, false);
+        }
+    }
+
+    // endregion
+
+    // region проверки
+
+    private void checkStructure(String context) {
+        List<String> expected = expectedRows();
+        assertEquals(context, expected.size(), pager.size());
+        int group = -1;
+        for (int position = 0; position < expected.size(); position++) {
+            boolean header = expected.get(position).startsWith("G");
+            if (header) {
+                group++;
+                assertEquals(context, position, pager.getGroupStart(group));
+                assertEquals(context, "G" + pager.getGroupId(group), expected.get(position));
+            }
+            assertEquals(context, header ? StudentGroupListItem.TYPE_GROUP : StudentGroupListItem.TYPE_STUDENT,
+                    pager.getType(position));
+            assertEquals(context, group, pager.getGroupIndex(position));
+        }
+    }
+
+    //строки, о загрузке которых сообщил пейджер, тоже перевыводятся
+    private void checkShown(String context) {
+        shown = rebind(shown, false);
+        assertEquals(context, expectedRows(), shown);
+    }
+
+    private void checkPages(String context) {
+        List<String> expected = expectedRows();
+        for (int position = 0; position < expected.size(); position++) {
+            if (pager.getType(position) != StudentGroupListItem.TYPE_STUDENT) {
+                continue;
+            }
+            StudentRow student = pager.peekStudent(position);
+            if (student != null) {
+                assertEquals(context + ", position " + position, expected.get(position), "S" + student.id);
+            }
+        }
+    }
+
+    /**
+     * Строки "new" и "changed" список перевыводит, остальные должны совпасть с моделью.
+     *
+     * @param placeholders после изменений без номеров строки, страницы которых не загружены,
+     *                     выводятся как заглушки: о них список узнает, когда страница загрузится
+     */
+    private List<String> rebind(List<String> rows, boolean placeholders) {
+        List<String> expected = expectedRows();
+        assertEquals(expected.size(), rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            String row = rows.get(i);
+            if (row.equals("new") || row.equals("changed")) {
+                continue;
+            }
+            if (placeholders && !row.equals(expected.get(i)) && pager.peekStudent(i) == null) {
+                continue;
+            }
+            assertEquals("row " + i, expected.get(i), row);
+        }
+        return expected;
+    }
+
+    // endregion
+
+    private void setPager(GroupStudentPager pager) {
+        this.pager = pager;
+        pager.setListener((fromPosition, count) -> {
+            assertTrue(fromPosition > 0 && fromPosition + count <= pager.size());
+            int group = pager.getGroupIndex(fromPosition);
+            assertEquals(group, pager.getGroupIndex(fromPosition + count - 1));
+            assertEquals(StudentGroupListItem.TYPE_STUDENT, pager.getType(fromPosition));
+            for (int i = fromPosition; i < fromPosition + count; i++) {
+                shown.set(i, "changed");
+            }
+        });
+    }
+
+    private List<String> expectedRows() {
+        List<String> rows = new ArrayList<>();
+        for (Map.Entry<Integer, List<StudentRow>> group : db.entrySet()) {
+            rows.add("G" + group.getKey());
+            if (!collapsedIds.contains(group.getKey())) {
+                for (StudentRow student : group.getValue()) {
+                    rows.add("S" + student.id);
+                }
+            }
+        }
+        return rows;
+    }
+
+    private List<GroupWithCount> groups() {
+        List<GroupWithCount> groups = new ArrayList<>();
+        for (Map.Entry<Integer, List<StudentRow>> group : db.entrySet()) {
+            groups.add(GroupStudentDifferTest.group(group.getKey(), group.getValue().size()));
+        }
+        return groups;
+    }
+
+    //страница так же, как StudentDao#getGroupPageAfter и StudentDao#getGroupPageAt
+    private List<StudentRow> page(int groupId, StudentRow previous, int offset, int limit) {
+        List<StudentRow> students = db.containsKey(groupId) ? db.get(groupId) : Collections.emptyList();
+        int from = offset;
+        if (previous != null) {
+            from = 0;
+            while (from < students.size() && ORDER.compare(students.get(from), previous) <= 0) {
+                from++;
+            }
+        }
+        from = Math.min(from, students.size());
+        return new ArrayList<>(students.subList(from, Math.min(students.size(), from + limit)));
+    }
+
+    private List<StudentRow> addGroup() {
+        List<StudentRow> students = new ArrayList<>();
+        db.put(nextGroupId++, students);
+        return students;
+    }
+
+    private List<StudentRow> allStudents() {
+        List<StudentRow> all = new ArrayList<>();
+        for (List<StudentRow> group : db.values()) {
+            all.addAll(group);
+        }
+        return all;
+    }
+
+    private StudentRow newStudent(int groupId) {
+        return newRow(nextStudentId++, groupId, lastName());
+    }
+
+    // повторяющиеся фамилии, чтобы порядок зависел и от id
+    private String lastName() {
+        return "Фамилия" + random.nextInt(60);
+    }
+
+    private static StudentRow newRow(int id, int groupId, String lastName) {
+        return new StudentRow(id, groupId, lastName + " Имя Отчество", lastName.length());
+    }
+
+    private static Student student(StudentRow row) {
+        if (row == null) {
+            return null;
+        }
+        Student student = new Student("Имя", "Отчество", row.getLastName());
+        student.id = row.id;
+        student.groupId = row.groupId;
+        return student;
+    }
+}
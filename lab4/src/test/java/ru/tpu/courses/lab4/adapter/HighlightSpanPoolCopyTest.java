@@ -0,0 +1,33 @@
+package ru.tpu.courses.lab4.adapter;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link HighlightSpanPool} скопирован из lab3, копии должны отличаться только пакетом.
+ * Unit тесты Gradle запускаются из папки модуля, поэтому исходники lab3 лежат рядом.
+ */
+public class HighlightSpanPoolCopyTest {
+
+    private static final String PATH = "src/main/java/ru/tpu/courses/%s/adapter/HighlightSpanPool.java";
+
+    @Test
+    public void sameAsLab3() throws Exception {
+        File lab3 = new File("../lab3", String.format(PATH, "lab3"));
+        File lab4 = new File(String.format(PATH, "lab4"));
+        assertTrue("not found: " + lab3.getAbsolutePath(), lab3.isFile());
+        assertEquals(
+                read(lab3).replace("package ru.tpu.courses.lab3.adapter;", "package ru.tpu.courses.lab4.adapter;"),
+                read(lab4)
+        );
+    }
+
+    private static String read(File file) throws Exception {
+        return new String(Files.readAllBytes(file.toPath()), "UTF-8");
+    }
+}
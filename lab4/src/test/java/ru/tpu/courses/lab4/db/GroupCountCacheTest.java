@@ -0,0 +1,177 @@
+package ru.tpu.courses.lab4.db;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Тесты {@link GroupCountCache} с {@link GroupCountCache.Source} в памяти: записи через
+ * репозиторий меняют количества на месте, остальные записи сбрасывают кэш.
+ */
+public class GroupCountCacheTest {
+
+    /**
+     * Группы, количества студентов и счётчик записей, как их видит БД.
+     */
+    private static class MemorySource implements GroupCountCache.Source {
+        final List<Group> groups = Arrays.asList(group(1), group(2));
+        final Map<Integer, Integer> counts = new HashMap<>();
+        long studentWrites;
+        int loads;
+
+        @NonNull
+        @Override
+        public List<Group> getGroups() {
+            return groups;
+        }
+
+        @NonNull
+        @Override
+        public List<GroupWithCount> loadCounts() {
+            loads++;
+            List<GroupWithCount> result = new ArrayList<>();
+            for (Group group : groups) {
+                GroupWithCount count = new GroupWithCount();
+                count.id = group.id;
+                count.groupName = group.groupName;
+                Integer studentCount = counts.get(group.id);
+                count.studentCount = studentCount != null ? studentCount : 0;
+                result.add(count);
+            }
+            return result;
+        }
+
+        @Override
+        public long readStudentWrites() {
+            return studentWrites;
+        }
+
+        //запись в student, как её видят триггеры
+        void move(int fromGroup, int toGroup) {
+            if (fromGroup != 0) {
+                counts.put(fromGroup, counts.get(fromGroup) - 1);
+            }
+            if (toGroup != 0) {
+                Integer count = counts.get(toGroup);
+                counts.put(toGroup, (count != null ? count : 0) + 1);
+            }
+            studentWrites++;
+        }
+    }
+
+    private final MemorySource source = new MemorySource();
+    private final GroupCountCache cache = new GroupCountCache(source);
+
+    @Test
+    public void repositoryWriteKeepsCountsAndAppliesDelta() {
+        source.move(0, 1);
+        source.move(0, 1);
+        assertCounts(2, 0);
+        assertEquals(1, source.loads);
+
+        // перевод студента из группы 1 в группу 2, как Lab4Repository#updateStudent
+        cache.beginWrite();
+        long before = cache.readStudentWrites();
+        source.move(1, 2);
+        long after = cache.readStudentWrites();
+        cache.endWrite(student(1), student(2), before, after);
+        // Room сообщает о записи уже после неё
+        cache.onStudentsChanged();
+
+        assertCounts(1, 1);
+        assertEquals(1, source.loads);
+    }
+
+    @Test
+    public void reportDuringRepositoryWriteKeepsCounts() {
+        assertCounts(0, 0);
+
+        cache.beginWrite();
+        long before = cache.readStudentWrites();
+        source.move(0, 2);
+        long after = cache.readStudentWrites();
+        // сообщение пришло после транзакции, но до endWrite
+        cache.onStudentsChanged();
+        cache.endWrite(null, student(2), before, after);
+
+        assertCounts(0, 1);
+        assertEquals(1, source.loads);
+    }
+
+    @Test
+    public void foreignWriteInvalidatesCounts() {
+        assertCounts(0, 0);
+
+        source.move(0, 1);
+        cache.onStudentsChanged();
+
+        assertCounts(1, 0);
+        assertEquals(2, source.loads);
+    }
+
+    /**
+     * Чужая запись перед записью репозитория, о которой Room сообщил одним сообщением вместе с ней.
+     */
+    @Test
+    public void foreignWriteBeforeRepositoryWriteInvalidatesCounts() {
+        assertCounts(0, 0);
+
+        source.move(0, 2);
+        cache.beginWrite();
+        long before = cache.readStudentWrites();
+        source.move(0, 1);
+        long after = cache.readStudentWrites();
+        cache.endWrite(null, student(1), before, after);
+        cache.onStudentsChanged();
+
+        assertCounts(1, 1);
+        assertEquals(2, source.loads);
+    }
+
+    /**
+     * Чужая запись после записи репозитория, о которой Room сообщил до endWrite.
+     */
+    @Test
+    public void foreignWriteReportedDuringRepositoryWriteInvalidatesCounts() {
+        assertCounts(0, 0);
+
+        cache.beginWrite();
+        long before = cache.readStudentWrites();
+        source.move(0, 1);
+        long after = cache.readStudentWrites();
+        source.move(0, 2);
+        cache.onStudentsChanged();
+        cache.endWrite(null, student(1), before, after);
+
+        assertCounts(1, 1);
+        assertEquals(2, source.loads);
+    }
+
+    private void assertCounts(int group1, int group2) {
+        GroupCountCache.Counts counts = cache.getAllWithCounts();
+        assertEquals(2, counts.groups.size());
+        assertEquals(group1, counts.groups.get(0).studentCount);
+        assertEquals(group2, counts.groups.get(1).studentCount);
+    }
+
+    private static Group group(int id) {
+        Group group = new Group("Группа " + id);
+        group.id = id;
+        return group;
+    }
+
+    private static Student student(int groupId) {
+        Student student = new Student("Имя", "Отчество", "Фамилия");
+        student.id = 1;
+        student.groupId = groupId;
+        return student;
+    }
+}
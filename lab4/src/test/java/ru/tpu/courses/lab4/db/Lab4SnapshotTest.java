@@ -0,0 +1,439 @@
+package ru.tpu.courses.lab4.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteConstraintException;
+
+import androidx.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Тесты {@link Lab4Snapshot} с {@link Lab4Snapshot.Store} в памяти: формат файла, повреждённые
+ * файлы и замена таблиц только после чтения всего файла. Там же замер скорости кодирования без
+ * SQLite.
+ */
+public class Lab4SnapshotTest {
+
+    /**
+     * Строка таблицы: для группы - id и название, для студента - id, id группы и ФИО.
+     */
+    private static class Row {
+        final Object[] values;
+
+        Row(Object... values) {
+            this.values = values;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Row && Arrays.equals(values, ((Row) o).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(values);
+        }
+
+        @Override
+        public String toString() {
+            return Arrays.toString(values);
+        }
+    }
+
+    /**
+     * Рабочие и промежуточные таблицы в памяти. Как и в БД, id в промежуточных таблицах и
+     * названия групп уникальны, иначе бросается SQLiteConstraintException.
+     */
+    private static class MemoryStore implements Lab4Snapshot.Store {
+        List<Row> groups = new ArrayList<>();
+        List<Row> students = new ArrayList<>();
+        List<Row> stagedGroups;
+        List<Row> stagedStudents;
+        int chunks;
+        int swaps;
+
+        @NonNull
+        @Override
+        public Cursor queryGroups() {
+            return cursor(groups);
+        }
+
+        @NonNull
+        @Override
+        public Cursor queryStudents() {
+            return cursor(students);
+        }
+
+        @Override
+        public void beginStaging() {
+            assertTrue("промежуточные таблицы уже есть", stagedGroups == null);
+            stagedGroups = new ArrayList<>();
+            stagedStudents = new ArrayList<>();
+        }
+
+        @Override
+        public void stageGroup(int id, @NonNull String groupName) {
+            checkId(stagedGroups, id);
+            stagedGroups.add(new Row(id, groupName));
+        }
+
+        @Override
+        public void stageStudent(int id, int groupId, @NonNull String firstName,
+                @NonNull String secondName, @NonNull String lastName) {
+            checkId(stagedStudents, id);
+            stagedStudents.add(new Row(id, groupId, firstName, secondName, lastName));
+        }
+
+        @Override
+        public void commitChunk() {
+            chunks++;
+        }
+
+        @Override
+        public void swapStaging() {
+            List<Object> names = new ArrayList<>();
+            for (Row group : stagedGroups) {
+                if (names.contains(group.values[1])) {
+                    throw new SQLiteConstraintException("UNIQUE constraint failed: group.group_name");
+                }
+                names.add(group.values[1]);
+            }
+            groups = stagedGroups;
+            students = stagedStudents;
+            stagedGroups = null;
+            stagedStudents = null;
+            swaps++;
+        }
+
+        @Override
+        public void dropStaging() {
+            stagedGroups = null;
+            stagedStudents = null;
+        }
+
+        private static void checkId(List<Row> rows, int id) {
+            for (Row row : rows) {
+                if (row.values[0].equals(id)) {
+                    throw new SQLiteConstraintException("UNIQUE constraint failed: id");
+                }
+            }
+        }
+    }
+
+    /**
+     * Строки не хранятся, а создаются по номеру при экспорте и только считаются при импорте,
+     * чтобы в замер не попадало их хранение.
+     */
+    private static class GeneratedStore extends MemoryStore {
+        final int rows;
+        int staged;
+
+        GeneratedStore(int rows) {
+            this.rows = rows;
+        }
+
+        @NonNull
+        @Override
+        public Cursor queryStudents() {
+            return cursor(rows, i -> new Row(i + 1, i % 100, "Имя" + i % 50, "Отчество" + i % 30,
+                    "Фамилия" + i));
+        }
+
+        @Override
+        public void stageStudent(int id, int groupId, @NonNull String firstName,
+                @NonNull String secondName, @NonNull String lastName) {
+            staged++;
+        }
+
+        @Override
+        public void swapStaging() {
+        }
+    }
+
+    private interface RowFactory {
+        Row create(int i);
+    }
+
+    private final File file = createFile();
+
+    @After
+    public void deleteFile() {
+        assertTrue(file.delete());
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        MemoryStore source = new MemoryStore();
+        source.groups.add(new Row(0, "Без группы"));
+        source.groups.add(new Row(1, "8К71"));
+        source.groups.add(new Row(300, "Group é€"));
+        source.students.add(new Row(1, 1, "Иван", "Иванович", "Иванов"));
+        source.students.add(new Row(2, 0, "", "", "O'Neil"));
+        // символ вне BMP - суррогатная пара в Java и 4 байта в UTF-8
+        source.students.add(new Row(100_000, 300, "Emoji 🎓", "Ж", "日本"));
+
+        Lab4Snapshot.Result exported = export(source);
+        MemoryStore target = storeWithData();
+        Lab4Snapshot.Result imported = importFile(target);
+
+        assertEquals(source.groups, target.groups);
+        assertEquals(source.students, target.students);
+        assertEquals(3, exported.groups);
+        assertEquals(3, exported.students);
+        assertEquals(3, imported.groups);
+        assertEquals(3, imported.students);
+        assertEquals(file.length(), exported.bytes);
+        assertEquals(file.length(), imported.bytes);
+    }
+
+    @Test
+    public void commitsStagingInChunks() throws IOException {
+        int rows = Lab4Snapshot.CHUNK_SIZE * 2 + 1;
+        MemoryStore source = new MemoryStore();
+        for (int i = 0; i < rows; i++) {
+            source.students.add(new Row(i + 1, 0, "Имя", "Отчество", "Фамилия" + i));
+        }
+        export(source);
+        MemoryStore target = new MemoryStore();
+
+        importFile(target);
+
+        // две полные пачки и остаток перед заменой
+        assertEquals(3, target.chunks);
+        assertEquals(1, target.swaps);
+        assertEquals(rows, target.students.size());
+    }
+
+    /**
+     * Каждый обрезанный вариант файла не меняет таблицы: раньше импорт удалял их в начале.
+     */
+    @Test
+    public void truncatedSnapshotKeepsData() throws IOException {
+        MemoryStore source = new MemoryStore();
+        source.groups.add(new Row(1, "8К71"));
+        for (int i = 0; i < 5; i++) {
+            source.students.add(new Row(i + 1, 1, "Имя", "Отчество", "Фамилия" + i));
+        }
+        export(source);
+        long length = file.length();
+
+        for (long size = length - 1; size >= 0; size--) {
+            RandomAccessFile truncated = new RandomAccessFile(file, "rw");
+            try {
+                truncated.setLength(size);
+            } finally {
+                truncated.close();
+            }
+            MemoryStore target = storeWithData();
+            try {
+                importFile(target);
+                fail("imported a snapshot truncated to " + size + " of " + length + " bytes");
+            } catch (IOException expected) {
+            }
+            assertUntouched(target);
+        }
+    }
+
+    /**
+     * Длина записи из повреждённого файла не выделяет память: раньше буфер увеличивался до неё.
+     */
+    @Test
+    public void corruptRecordLengthIsRejected() throws IOException {
+        // заголовок, раздел групп и длина записи 2^28 - 1
+        write(new byte[]{'L', '4', 'S', 1, 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x7F});
+        MemoryStore target = storeWithData();
+
+        try {
+            importFile(target);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("corrupt record length"));
+        }
+        assertUntouched(target);
+    }
+
+    @Test
+    public void failedSwapKeepsData() throws IOException {
+        MemoryStore source = new MemoryStore();
+        source.groups.add(new Row(1, "8К71"));
+        source.groups.add(new Row(2, "8К71"));
+        export(source);
+        MemoryStore target = storeWithData();
+
+        try {
+            importFile(target);
+            fail();
+        } catch (IOException expected) {
+        }
+        assertUntouched(target);
+    }
+
+    /**
+     * Ошибка SQLite при добавлении строки - тоже IOException: раньше она завершала процесс.
+     */
+    @Test
+    public void duplicateIdKeepsData() throws IOException {
+        MemoryStore source = new MemoryStore();
+        source.groups.add(new Row(1, "8К71"));
+        source.students.add(new Row(1, 1, "Иван", "Иванович", "Иванов"));
+        source.students.add(new Row(1, 1, "Пётр", "Петрович", "Петров"));
+        export(source);
+        MemoryStore target = storeWithData();
+
+        try {
+            importFile(target);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof SQLiteConstraintException);
+        }
+        assertUntouched(target);
+    }
+
+    @Test
+    public void tooLongRecordIsNotExported() {
+        char[] name = new char[Lab4Snapshot.MAX_RECORD_SIZE];
+        Arrays.fill(name, 'a');
+        MemoryStore source = new MemoryStore();
+        source.groups.add(new Row(1, new String(name)));
+
+        try {
+            export(source);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("group 1"));
+        }
+    }
+
+    /**
+     * Скорость экспорта и импорта миллиона студентов без SQLite: кодирование, буфер и
+     * FileChannel. Вставка в SQLite здесь не измеряется, её скорость пишет в лог
+     * {@link Lab4Repository#importSnapshot}.
+     * <p>
+     * На одном ядре HotSpot 17 экспорт идёт ~1 млн строк/с, импорт ~2,5 млн строк/с, а файл
+     * занимает ~53 байта на студента. Нижние границы скорости взяты с большим запасом на медленные
+     * машины сборки и ловят только падение в разы.
+     */
+    @Test
+    public void throughput() throws IOException {
+        int rows = 1_000_000;
+        // прогрев JIT
+        export(new GeneratedStore(200_000));
+        importFile(new GeneratedStore(0));
+
+        GeneratedStore store = new GeneratedStore(rows);
+        long start = System.nanoTime();
+        export(store);
+        long exportNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        Lab4Snapshot.Result imported = importFile(store);
+        long importNanos = System.nanoTime() - start;
+
+        assertEquals(rows, imported.students);
+        assertEquals(rows, store.staged);
+        long exportRowsPerSecond = rows * 1_000_000_000L / exportNanos;
+        long importRowsPerSecond = rows * 1_000_000_000L / importNanos;
+        String measured = "snapshot without SQLite: " + file.length() + " bytes, " +
+                "export " + exportRowsPerSecond + " rows/s, import " + importRowsPerSecond + " rows/s";
+        assertTrue(measured, file.length() < rows * 64L);
+        assertTrue(measured, exportRowsPerSecond > 150_000);
+        assertTrue(measured, importRowsPerSecond > 300_000);
+    }
+
+    private Lab4Snapshot.Result export(MemoryStore store) throws IOException {
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            out.setLength(0);
+            return new Lab4Snapshot(store).export(out.getChannel());
+        } finally {
+            out.close();
+        }
+    }
+
+    private Lab4Snapshot.Result importFile(MemoryStore store) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            return new Lab4Snapshot(store).importSnapshot(in.getChannel());
+        } finally {
+            in.close();
+        }
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            out.setLength(0);
+            FileChannel channel = out.getChannel();
+            channel.write(ByteBuffer.wrap(bytes));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static MemoryStore storeWithData() {
+        MemoryStore store = new MemoryStore();
+        store.groups.add(new Row(5, "Прежняя группа"));
+        store.students.add(new Row(7, 5, "Пётр", "Петрович", "Петров"));
+        return store;
+    }
+
+    private static void assertUntouched(MemoryStore store) {
+        assertEquals(storeWithData().groups, store.groups);
+        assertEquals(storeWithData().students, store.students);
+        assertEquals(0, store.swaps);
+        // промежуточные таблицы удалены
+        assertFalse(store.stagedGroups != null || store.stagedStudents != null);
+    }
+
+    private static File createFile() {
+        try {
+            return File.createTempFile("lab4", ".snapshot");
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static Cursor cursor(List<Row> rows) {
+        return cursor(rows.size(), rows::get);
+    }
+
+    /**
+     * Cursor только с методами, которые вызывает {@link Lab4Snapshot#export}.
+     */
+    private static Cursor cursor(int count, RowFactory rows) {
+        Row[] current = new Row[1];
+        int[] position = {-1};
+        return (Cursor) Proxy.newProxyInstance(Cursor.class.getClassLoader(), new Class<?>[]{Cursor.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "moveToNext":
+                            position[0]++;
+                            current[0] = position[0] < count ? rows.create(position[0]) : null;
+                            return current[0] != null;
+                        case "getInt":
+                            return current[0].values[(int) args[0]];
+                        case "getString":
+                            return current[0].values[(int) args[0]];
+                        case "close":
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
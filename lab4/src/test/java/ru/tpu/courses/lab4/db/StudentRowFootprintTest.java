@@ -0,0 +1,133 @@
+package ru.tpu.courses.lab4.db;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Замер памяти на {@link #ROWS} строк списка: {@link StudentRow} против полного {@link Student},
+ * и сколько байт выделяет вывод одной строки.
+ * <p>
+ * Строки создаются так же, как их создаёт Room из Cursor: каждая колонка каждой строки - новый
+ * объект String. Память считается как разница занятой кучи до и после создания строк, поэтому
+ * замер приблизительный и зависит от JVM, но соотношение сохраняется.
+ */
+public class StudentRowFootprintTest {
+
+    private static final int ROWS = 100_000;
+    private static final String[] FIRST_NAMES = {
+            "Иван", "Пётр", "Анна", "Мария", "Сергей", "Ольга", "Алексей", "Елена", "Дмитрий", "Наталья"
+    };
+    private static final String[] SECOND_NAMES = {
+            "Иванович", "Петрович", "Сергеевна", "Алексеевна", "Дмитриевич", "Андреевич"
+    };
+
+    private interface Factory {
+        Object create(int i);
+    }
+
+    @Test
+    public void rowIsSmallerThanStudent() {
+        long student = measure(i -> {
+            Student s = new Student(firstName(i), secondName(i), lastName(i));
+            s.id = i;
+            s.groupId = i % 100;
+            return s;
+        });
+        long row = measure(i -> {
+            String lastName = lastName(i);
+            // ФИО склеивает SQLite, в Java приходит уже одна строка
+            return new StudentRow(i, i % 100, lastName + " " + firstName(i) + " " + secondName(i),
+                    lastName.length());
+        });
+        // на HotSpot 17 со сжатыми ссылками: Student 209 байт, StudentRow 131
+        assertTrue("bytes per list row: Student " + student + ", StudentRow " + row, row * 4 < student * 3);
+    }
+
+    /**
+     * Прежний вывод строки склеивал ФИО при каждом выводе, теперь берётся готовая строка.
+     */
+    @Test
+    public void bindAllocatesNothing() {
+        Student student = new Student(firstName(1), secondName(1), lastName(1));
+        StudentRow row = new StudentRow(1, 0, lastName(1) + " " + firstName(1) + " " + secondName(1),
+                lastName(1).length());
+        int binds = 100_000;
+        // прогрев JIT, чтобы в замер не попали выделения интерпретатора
+        long sink = bindStudent(student, binds) + bindRow(row, binds);
+
+        long before = allocatedBytes();
+        sink += bindStudent(student, binds);
+        long studentBytes = (allocatedBytes() - before) / binds;
+
+        before = allocatedBytes();
+        sink += bindRow(row, binds);
+        long rowBytes = (allocatedBytes() - before) / binds;
+
+        // на HotSpot 17: Student 320 байт, StudentRow 0
+        String measured = "bytes allocated per bind: Student " + studentBytes + ", StudentRow " + rowBytes;
+        assertTrue(sink > 0);
+        assertTrue(measured, studentBytes > 0);
+        assertEquals(measured, 0, rowBytes);
+    }
+
+    private static long bindStudent(Student student, int binds) {
+        long length = 0;
+        for (int i = 0; i < binds; i++) {
+            length += (student.lastName + " " + student.firstName + " " + student.secondName).length();
+        }
+        return length;
+    }
+
+    private static long bindRow(StudentRow row, int binds) {
+        long length = 0;
+        for (int i = 0; i < binds; i++) {
+            length += row.displayName.length();
+        }
+        return length;
+    }
+
+    private static long measure(Factory factory) {
+        Object[] warmUp = new Object[1000];
+        for (int i = 0; i < warmUp.length; i++) {
+            warmUp[i] = factory.create(i);
+        }
+        Object[] rows = new Object[ROWS];
+        long before = usedMemory();
+        for (int i = 0; i < ROWS; i++) {
+            rows[i] = factory.create(i);
+        }
+        long after = usedMemory();
+        assertTrue(rows[ROWS - 1] != null && warmUp[0] != null);
+        return (after - before) / ROWS;
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    // выделено текущим потоком с его запуска, есть только на HotSpot
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static String firstName(int i) {
+        return new String(FIRST_NAMES[i % FIRST_NAMES.length].toCharArray());
+    }
+
+    private static String secondName(int i) {
+        return new String(SECOND_NAMES[i % SECOND_NAMES.length].toCharArray());
+    }
+
+    private static String lastName(int i) {
+        return "Фамилия" + i;
+    }
+}